@@ -1,3 +1,4 @@
+import entrants.pacman.matt_barthet.Agent_Instrumented;
 import entrants.pacman.matt_barthet.MyPacMan_GA;
 import entrants.pacman.matt_barthet.MyPacMan_TDL;
 import examples.StarterISMCTS.InformationSetMCTSPacMan;
@@ -43,8 +44,15 @@ public class Main {
         comms_controllers.put(GHOST.PINKY, new examples.StarterGhostComm.Pinky());
         comms_controllers.put(GHOST.SUE, new examples.StarterGhostComm.Sue());
 
-        executor.runGame(new MyPacMan_TDL(), new MASController(controllers), 0);
-        executor.runGame(new MyPacMan_GA(), new MASController(controllers), 0);
+        Agent_Instrumented tdl = new Agent_Instrumented(new MyPacMan_TDL());
+        executor.runGame(tdl, new MASController(controllers), 0);
+        tdl.report();
+
+        MyPacMan_GA gaAgent = new MyPacMan_GA();
+        Agent_Instrumented ga = new Agent_Instrumented(gaAgent);
+        executor.runGame(ga, new MASController(controllers), 0);
+        ga.report();
+        gaAgent.close();
 
         /*String result = executor.runExperiment(new MyPacMan_GA(), new MASController(controllers), 10, "Pacman PO: " + true + " ghosts PO: " + true)[0].toString();
         System.out.println(result);
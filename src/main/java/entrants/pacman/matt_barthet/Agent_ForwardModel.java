@@ -0,0 +1,459 @@
+package entrants.pacman.matt_barthet;
+
+import pacman.game.Constants;
+import pacman.game.Constants.DM;
+import pacman.game.Constants.GHOST;
+import pacman.game.Constants.MOVE;
+import pacman.game.Game;
+import pacman.game.internal.Maze;
+import pacman.game.internal.Node;
+import pathing.PathTables;
+import prediction.PillModel;
+import prediction.fast.GhostSamplerFast;
+
+import java.util.*;
+
+public class Agent_ForwardModel implements Agent_Simulation {
+
+    /**
+     * Compact copy of everything a planner's rollout changes: Ms. Pacman, the four ghosts, the pills,
+     * the score and lives, all held in primitive fields and arrays so that a state can be reset or
+     * cloned with a handful of array copies instead of Game.copy or getGameFromInfo.  Moves are stored
+     * by ordinal, and the maze itself is shared read-only between every model playing it.
+     */
+    private final static int NUM_GHOSTS = GHOST.values().length;
+    private final static MOVE[] MOVES = MOVE.values();
+    private final static int NEUTRAL = MOVE.NEUTRAL.ordinal();
+
+    private Layout layout;
+    private PathTables paths;
+    private int pacmanNode, pacmanMove, score, lives, level, totalTime, ghostEatMultiplier;
+    private final int[] ghostNode = new int[NUM_GHOSTS], ghostMove = new int[NUM_GHOSTS];
+    private final int[] ghostEdibleTime = new int[NUM_GHOSTS], ghostLairTime = new int[NUM_GHOSTS];
+    private final MOVE[] sampledMoves = new MOVE[NUM_GHOSTS];
+    private long[] pills = new long[0];
+    private long powerPills;
+    private boolean pacmanWasEaten, pillWasEaten, powerPillWasEaten;
+    private int ghostsEaten;
+    private Game source;
+    private int sourceTime;
+    private PillModel.Snapshot sourcePills;
+
+    /**
+     * Resets the model to Ms. Pacman's current state and a determinised placement of the ghosts,
+     * the same way getGameSimulation builds a full copy of the game.
+     * @param game: the game being played, used for the maze and its path distances.
+     * @param sampler: this tick's sampler of ghost locations (ghosts it can't place start at the lair's exit).
+     * @param edibleTimes: the estimated edible time of each ghost.
+     * @param pillModel: snapshot of the pills believed to still be in the maze.
+     */
+    public void reset(Game game, GhostSamplerFast sampler, int[] edibleTimes, PillModel.Snapshot pillModel){
+        resetTemplate(game, edibleTimes, pillModel);
+        placeGhosts(sampler);
+    }
+
+    /**
+     * Resets the model to another's state, with the ghosts placed afresh.  Every rollout of a tick
+     * can start from one template built by resetTemplate, so only the ghosts are sampled per rollout.
+     * @param template: the model holding this tick's state of the game.
+     * @param sampler: this tick's sampler of ghost locations.
+     */
+    public void resetFrom(Agent_ForwardModel template, GhostSamplerFast sampler){
+        copyFrom(template);
+        placeGhosts(sampler);
+    }
+
+    /**
+     * Resets everything the model knows about the game apart from where the ghosts are, leaving it
+     * ready to be used as the template of a tick's rollouts.
+     * @param game: the game being played, used for the maze and its path distances.
+     * @param edibleTimes: the estimated edible time of each ghost.
+     * @param pillModel: snapshot of the pills believed to still be in the maze.
+     */
+    public void resetTemplate(Game game, int[] edibleTimes, PillModel.Snapshot pillModel){
+        source = game;
+        sourceTime = game.getTotalTime();
+        sourcePills = pillModel;
+        layout = Layout.get(game.getCurrentMaze());
+        paths = PathTables.forGame(game);
+        pacmanNode = game.getPacmanCurrentNodeIndex();
+        pacmanMove = game.getPacmanLastMoveMade().ordinal();
+        score = game.getScore();
+        lives = game.getPacmanNumberOfLivesRemaining();
+        level = game.getCurrentLevel();
+        totalTime = game.getTotalTime();
+        ghostEatMultiplier = 1;
+        clearEvents();
+
+        for(int g = 0; g < NUM_GHOSTS; g++){
+            ghostNode[g] = layout.initialGhostNode;
+            ghostMove[g] = NEUTRAL;
+            ghostEdibleTime[g] = Math.max(edibleTimes[g], 0);
+            ghostLairTime[g] = 0;
+        }
+
+        if(pills.length != layout.pillWords)
+            pills = new long[layout.pillWords];
+        pillModel.copyInto(pills);
+        powerPills = 0L;
+        for(int i = 0; i < layout.numberOfPowerPills; i++){
+            Boolean available = game.isPowerPillStillAvailable(i);
+            if(available == null || available)
+                powerPills |= 1L << i;
+        }
+    }
+
+    /**
+     * @param game: the game being played.
+     * @param edibleTimes: the estimated edible time of each ghost.
+     * @param pillModel: the snapshot of the pills being used.
+     * @return true if resetTemplate was last called with this tick of the game, these edible times
+     * and these pills.  The edible times are compared by value, as the agents update them in place
+     * while observing the ghosts and may simulate partway through.
+     */
+    public boolean isTemplateOf(Game game, int[] edibleTimes, PillModel.Snapshot pillModel){
+        if(source != game || sourcePills != pillModel || sourceTime != game.getTotalTime())
+            return false;
+        for(int g = 0; g < NUM_GHOSTS; g++){
+            if(ghostEdibleTime[g] != Math.max(edibleTimes[g], 0))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Draws a placement of the ghosts from the sampler.  Ghosts it can't place start at the lair's
+     * exit, neither moving nor edible.
+     * @param sampler: this tick's sampler of ghost locations.
+     */
+    private void placeGhosts(GhostSamplerFast sampler){
+        sampler.sampleInto(ghostNode, sampledMoves, Agent_Random.current());
+        for(int g = 0; g < NUM_GHOSTS; g++){
+            if(ghostNode[g] != -1){
+                ghostMove[g] = sampledMoves[g].ordinal();
+            } else {
+                ghostNode[g] = layout.initialGhostNode;
+                ghostMove[g] = NEUTRAL;
+                ghostEdibleTime[g] = 0;
+            }
+        }
+    }
+
+    /**
+     * Overwrites this model with the state of another, without allocating unless the other is
+     * playing a maze with a different number of pills.
+     * @param other: the model being copied.
+     */
+    public void copyFrom(Agent_ForwardModel other){
+        layout = other.layout;
+        paths = other.paths;
+        pacmanNode = other.pacmanNode;
+        pacmanMove = other.pacmanMove;
+        score = other.score;
+        lives = other.lives;
+        level = other.level;
+        totalTime = other.totalTime;
+        ghostEatMultiplier = other.ghostEatMultiplier;
+        pacmanWasEaten = other.pacmanWasEaten;
+        pillWasEaten = other.pillWasEaten;
+        powerPillWasEaten = other.powerPillWasEaten;
+        ghostsEaten = other.ghostsEaten;
+        System.arraycopy(other.ghostNode, 0, ghostNode, 0, NUM_GHOSTS);
+        System.arraycopy(other.ghostMove, 0, ghostMove, 0, NUM_GHOSTS);
+        System.arraycopy(other.ghostEdibleTime, 0, ghostEdibleTime, 0, NUM_GHOSTS);
+        System.arraycopy(other.ghostLairTime, 0, ghostLairTime, 0, NUM_GHOSTS);
+        if(pills.length != other.pills.length)
+            pills = new long[other.pills.length];
+        System.arraycopy(other.pills, 0, pills, 0, pills.length);
+        powerPills = other.powerPills;
+    }
+
+    /**
+     * @return a new model holding the same state as this one.
+     */
+    public Agent_ForwardModel copy(){
+        Agent_ForwardModel copy = new Agent_ForwardModel();
+        copy.copyFrom(this);
+        return copy;
+    }
+
+    /**
+     * Advances the model by one tick, following the game engine's order of updates: Ms. Pacman moves
+     * and eats, the ghosts move (reversing if a power pill was just eaten, and at half speed while
+     * edible), collisions are resolved, then the edible and lair timers count down.  The engine's
+     * random global ghost reversals, extra lives and level changes are left out, as the planners
+     * never look far enough ahead for them to matter.
+     * @param pacManMove: the move Ms. Pacman makes.
+     * @param ghostMoves: the move each ghost makes (missing ghosts keep their direction).
+     */
+    public void advanceGame(MOVE pacManMove, EnumMap<GHOST, MOVE> ghostMoves){
+        clearEvents();
+        updatePacMan(pacManMove.ordinal());
+        updateGhosts(ghostMoves);
+        feast();
+        updateLairTimes();
+        totalTime++;
+    }
+
+    private void clearEvents(){
+        pacmanWasEaten = false;
+        pillWasEaten = false;
+        powerPillWasEaten = false;
+        ghostsEaten = 0;
+    }
+
+    /**
+     * Moves Ms. Pacman, keeping her previous direction when the requested move is blocked, and
+     * collects any pill or power pill at her new position.
+     * @param move: ordinal of the move requested.
+     */
+    private void updatePacMan(int move){
+        if(layout.neighbour(pacmanNode, move) == -1)
+            move = layout.neighbour(pacmanNode, pacmanMove) == -1 ? NEUTRAL : pacmanMove;
+        pacmanMove = move;
+        if(move != NEUTRAL)
+            pacmanNode = layout.neighbour(pacmanNode, move);
+
+        int pill = layout.pillIndex[pacmanNode];
+        if(pill != -1 && (pills[pill >>> 6] & (1L << pill)) != 0){
+            pills[pill >>> 6] &= ~(1L << pill);
+            score += Constants.PILL;
+            pillWasEaten = true;
+        }
+        int powerPill = layout.powerPillIndex[pacmanNode];
+        if(powerPill != -1 && (powerPills & (1L << powerPill)) != 0){
+            powerPills &= ~(1L << powerPill);
+            score += Constants.POWER_PILL;
+            ghostEatMultiplier = 1;
+            int edibleTime = (int) (Constants.EDIBLE_TIME * Math.pow(Constants.EDIBLE_TIME_REDUCTION, level % Constants.LEVEL_RESET_REDUCTION));
+            for(int g = 0; g < NUM_GHOSTS; g++){
+                ghostEdibleTime[g] = ghostLairTime[g] == 0 ? edibleTime : 0;
+            }
+            powerPillWasEaten = true;
+        }
+    }
+
+    /**
+     * Moves every ghost outside the lair, either reversing all of them after a power pill or
+     * applying their requested moves without letting them turn back on themselves.
+     * @param ghostMoves: the move each ghost makes.
+     */
+    private void updateGhosts(EnumMap<GHOST, MOVE> ghostMoves){
+        for(GHOST ghost : GHOST.values()){
+            int g = ghost.ordinal();
+            if(ghostLairTime[g] > 0) continue;
+            if(powerPillWasEaten){
+                int back = opposite(ghostMove[g]);
+                if(layout.neighbour(ghostNode[g], back) != -1){
+                    ghostMove[g] = back;
+                    ghostNode[g] = layout.neighbour(ghostNode[g], back);
+                }
+            } else if(ghostEdibleTime[g] == 0 || ghostEdibleTime[g] % Constants.GHOST_SPEED_REDUCTION != 0){
+                MOVE requested = ghostMoves.get(ghost);
+                int move = checkGhostDir(g, requested == null ? NEUTRAL : requested.ordinal());
+                if(move == NEUTRAL) continue;
+                ghostMove[g] = move;
+                ghostNode[g] = layout.neighbour(ghostNode[g], move);
+            }
+        }
+    }
+
+    /**
+     * Corrects a ghost's requested move the way the engine does: the move is taken if it is legal
+     * and not a reversal, otherwise the ghost keeps going, or turns at random where it can't.
+     * @param g: ordinal of the ghost.
+     * @param move: ordinal of the requested move.
+     * @return ordinal of the move the ghost makes.
+     */
+    private int checkGhostDir(int g, int move){
+        int node = ghostNode[g], back = opposite(ghostMove[g]);
+        if(move != NEUTRAL && move != back && layout.neighbour(node, move) != -1)
+            return move;
+        if(ghostMove[g] != NEUTRAL && layout.neighbour(node, ghostMove[g]) != -1)
+            return ghostMove[g];
+        int options = 0, chosen = NEUTRAL;
+        for(int m = 0; m < NEUTRAL; m++){
+            if(m == back || layout.neighbour(node, m) == -1) continue;
+            //Reservoir sampling picks uniformly between the legal moves without a temporary array
+            if(Agent_Random.current().nextInt(++options) == 0)
+                chosen = m;
+        }
+        return chosen == NEUTRAL ? back : chosen;
+    }
+
+    /**
+     * Resolves collisions between Ms. Pacman and the ghosts: edible ghosts are sent back to the
+     * lair for points, while any other ghost within eating distance costs Ms. Pacman a life.
+     */
+    private void feast(){
+        for(int g = 0; g < NUM_GHOSTS; g++){
+            if(ghostLairTime[g] > 0) continue;
+            int distance = paths.getShortestPathDistance(pacmanNode, ghostNode[g]);
+            if(distance == -1 || distance > Constants.EAT_DISTANCE) continue;
+            if(ghostEdibleTime[g] > 0){
+                score += Constants.GHOST_EAT_SCORE * ghostEatMultiplier;
+                ghostEatMultiplier *= 2;
+                ghostEdibleTime[g] = 0;
+                ghostLairTime[g] = (int) (Constants.COMMON_LAIR_TIME * Math.pow(Constants.LAIR_REDUCTION, level % Constants.LEVEL_RESET_REDUCTION));
+                ghostNode[g] = layout.lairNode;
+                ghostMove[g] = NEUTRAL;
+                ghostsEaten |= 1 << g;
+            } else {
+                lives--;
+                pacmanWasEaten = true;
+                return;
+            }
+        }
+        for(int g = 0; g < NUM_GHOSTS; g++){
+            if(ghostEdibleTime[g] > 0)
+                ghostEdibleTime[g]--;
+        }
+    }
+
+    private void updateLairTimes(){
+        for(int g = 0; g < NUM_GHOSTS; g++){
+            if(ghostLairTime[g] > 0 && --ghostLairTime[g] == 0)
+                ghostNode[g] = layout.initialGhostNode;
+        }
+    }
+
+    /**
+     * @param move: ordinal of a move.
+     * @return ordinal of the opposite move (NEUTRAL is its own opposite).
+     */
+    private static int opposite(int move){ return move == NEUTRAL ? NEUTRAL : (move + 2) % NEUTRAL; }
+
+    public int getPacmanCurrentNodeIndex(){ return pacmanNode; }
+
+    public MOVE getPacmanLastMoveMade(){ return MOVES[pacmanMove]; }
+
+    public int getPacmanNumberOfLivesRemaining(){ return lives; }
+
+    public int getGhostCurrentNodeIndex(GHOST ghost){ return ghostNode[ghost.ordinal()]; }
+
+    public MOVE getGhostLastMoveMade(GHOST ghost){ return MOVES[ghostMove[ghost.ordinal()]]; }
+
+    public int getGhostEdibleTime(GHOST ghost){ return ghostEdibleTime[ghost.ordinal()]; }
+
+    public int getGhostLairTime(GHOST ghost){ return ghostLairTime[ghost.ordinal()]; }
+
+    public boolean isGhostEdible(GHOST ghost){ return ghostEdibleTime[ghost.ordinal()] > 0; }
+
+    public boolean isJunction(int nodeIndex){ return layout.junction[nodeIndex]; }
+
+    public int getNeighbour(int nodeIndex, MOVE move){ return layout.neighbour(nodeIndex, move.ordinal()); }
+
+    public int getNumberOfNodes(){ return layout.junction.length; }
+
+    public int[] getPowerPillIndices(){ return layout.powerPillNodes; }
+
+    public boolean hasPill(int nodeIndex){
+        int pill = layout.pillIndex[nodeIndex];
+        return pill != -1 && (pills[pill >>> 6] & (1L << pill)) != 0;
+    }
+
+    public boolean hasPowerPill(int nodeIndex){
+        int powerPill = layout.powerPillIndex[nodeIndex];
+        return powerPill != -1 && (powerPills & (1L << powerPill)) != 0;
+    }
+
+    public int getShortestPathDistance(int fromNodeIndex, int toNodeIndex){ return paths.getShortestPathDistance(fromNodeIndex, toNodeIndex); }
+
+    /**
+     * Path distances are the only measure the planners use, so the distance measure is ignored.
+     * With every direction allowed the answer is read straight from the maze's path tables.
+     */
+    public MOVE getNextMoveTowardsTarget(int fromNodeIndex, int toNodeIndex, DM distanceMeasure){
+        return paths.getNextMoveTowardsTarget(fromNodeIndex, toNodeIndex);
+    }
+
+    public MOVE getNextMoveTowardsTarget(int fromNodeIndex, int toNodeIndex, MOVE lastMoveMade, DM distanceMeasure){
+        return bestMove(fromNodeIndex, toNodeIndex, lastMoveMade.ordinal(), true);
+    }
+
+    public MOVE getApproximateNextMoveAwayFromTarget(int fromNodeIndex, int toNodeIndex, MOVE lastMoveMade, DM distanceMeasure){
+        return bestMove(fromNodeIndex, toNodeIndex, lastMoveMade.ordinal(), false);
+    }
+
+    /**
+     * Picks the neighbour closest to (or furthest from) a target, excluding the reversal of the last
+     * move.  Ties go to the lowest move ordinal, as they do in the engine.
+     * @param from: the node the move is made from.
+     * @param to: the target node.
+     * @param lastMove: ordinal of the last move made, or NEUTRAL to allow every direction.
+     * @param towards: whether to approach the target rather than flee from it.
+     * @return the chosen move, or NEUTRAL if no move is possible.
+     */
+    private MOVE bestMove(int from, int to, int lastMove, boolean towards){
+        int back = opposite(lastMove), chosen = NEUTRAL, bestDistance = 0;
+        for(int m = 0; m < NEUTRAL; m++){
+            int next = layout.neighbour(from, m);
+            if(next == -1 || (m == back && lastMove != NEUTRAL)) continue;
+            int distance = paths.getShortestPathDistance(next, to);
+            if(chosen == NEUTRAL || (towards ? distance < bestDistance : distance > bestDistance)){
+                chosen = m;
+                bestDistance = distance;
+            }
+        }
+        return MOVES[chosen];
+    }
+
+    public boolean wasPacManEaten(){ return pacmanWasEaten; }
+
+    public boolean wasPillEaten(){ return pillWasEaten; }
+
+    public boolean wasPowerPillEaten(){ return powerPillWasEaten; }
+
+    public boolean wasGhostEaten(GHOST ghost){ return (ghostsEaten & (1 << ghost.ordinal())) != 0; }
+
+    public int getGhostCurrentEdibleScore(){ return Constants.GHOST_EAT_SCORE * ghostEatMultiplier; }
+
+    public int getScore(){ return score; }
+
+    /**
+     * @class Layout: the parts of a maze the model reads every tick, flattened into arrays once per
+     * maze and shared by every model playing it.  Neighbours are indexed by (node * 5 + move ordinal)
+     * so that NEUTRAL simply has no neighbour.
+     */
+    private static class Layout{
+
+        private final static IdentityHashMap<Maze, Layout> layouts = new IdentityHashMap<>();
+        final int[] neighbours, pillIndex, powerPillIndex, powerPillNodes;
+        final boolean[] junction;
+        final int numberOfPills, numberOfPowerPills, pillWords, lairNode, initialGhostNode;
+
+        static synchronized Layout get(Maze maze){
+            Layout layout = layouts.get(maze);
+            if(layout == null){
+                layout = new Layout(maze);
+                layouts.put(maze, layout);
+            }
+            return layout;
+        }
+
+        private Layout(Maze maze){
+            Node[] graph = maze.graph;
+            neighbours = new int[graph.length * MOVES.length];
+            pillIndex = new int[graph.length];
+            powerPillIndex = new int[graph.length];
+            junction = new boolean[graph.length];
+            Arrays.fill(neighbours, -1);
+            for(int node = 0; node < graph.length; node++){
+                for(Map.Entry<MOVE, Integer> entry : graph[node].neighbourhood.entrySet()){
+                    neighbours[node * MOVES.length + entry.getKey().ordinal()] = entry.getValue();
+                }
+                pillIndex[node] = graph[node].pillIndex;
+                powerPillIndex[node] = graph[node].powerPillIndex;
+                junction[node] = graph[node].numNeighbouringNodes > 2;
+            }
+            numberOfPills = maze.pillIndices.length;
+            numberOfPowerPills = Math.min(maze.powerPillIndices.length, Long.SIZE);
+            pillWords = (numberOfPills + Long.SIZE - 1) / Long.SIZE;
+            powerPillNodes = maze.powerPillIndices;
+            lairNode = maze.lairNodeIndex;
+            initialGhostNode = maze.initialGhostNodeIndex;
+        }
+
+        int neighbour(int node, int move){ return neighbours[node * MOVES.length + move]; }
+    }
+}
@@ -0,0 +1,121 @@
+package entrants.pacman.matt_barthet;
+
+import pacman.game.Constants.DM;
+import pacman.game.Constants.GHOST;
+import pacman.game.Constants.MOVE;
+import pacman.game.Game;
+import pathing.PathTables;
+import prediction.PillModel;
+
+import java.util.EnumMap;
+
+/**
+ * Adapter presenting a full copy of the game as a simulation, so the planners can keep running
+ * their rollouts through the game engine itself.
+ */
+public class Agent_GameSimulation implements Agent_Simulation {
+
+    private Game game;
+    private PathTables paths;
+    private PillModel.Snapshot pills;
+
+    public Agent_GameSimulation(Game game){
+        this.game = game;
+    }
+
+    /**
+     * Presents the game being played as Ms. Pacman believes it to be: pills are read from the pill
+     * model and power pills she hasn't seen are taken to still be there, the same way the
+     * simulations determinised from it are filled in.  States encoded from the real game then get
+     * the same codes as the same states reached in a rollout.
+     * @param game: the game being played.
+     * @param pills: this tick's snapshot of the pill model.
+     */
+    public Agent_GameSimulation(Game game, PillModel.Snapshot pills){
+        this.game = game;
+        this.pills = pills;
+    }
+
+    /**
+     * Points the adapter at another game, so one adapter can be reused for many rollouts.  The
+     * game is read as it is, without a pill model.
+     * @param game: the game being simulated.
+     * @return this adapter.
+     */
+    public Agent_GameSimulation wrap(Game game){
+        this.game = game;
+        this.pills = null;
+        return this;
+    }
+
+    public Game getGame(){ return game; }
+
+    public int getPacmanCurrentNodeIndex(){ return game.getPacmanCurrentNodeIndex(); }
+
+    public MOVE getPacmanLastMoveMade(){ return game.getPacmanLastMoveMade(); }
+
+    public int getGhostCurrentNodeIndex(GHOST ghost){ return game.getGhostCurrentNodeIndex(ghost); }
+
+    public MOVE getGhostLastMoveMade(GHOST ghost){ return game.getGhostLastMoveMade(ghost); }
+
+    public int getGhostEdibleTime(GHOST ghost){ return game.getGhostEdibleTime(ghost); }
+
+    public boolean isGhostEdible(GHOST ghost){ return game.isGhostEdible(ghost); }
+
+    public boolean isJunction(int nodeIndex){ return game.isJunction(nodeIndex); }
+
+    public int getNeighbour(int nodeIndex, MOVE move){ return game.getNeighbour(nodeIndex, move); }
+
+    public int getNumberOfNodes(){ return game.getNumberOfNodes(); }
+
+    public int[] getPowerPillIndices(){ return game.getPowerPillIndices(); }
+
+    public boolean hasPill(int nodeIndex){
+        int pillIndex = game.getPillIndex(nodeIndex);
+        if(pillIndex == -1) return false;
+        return pills != null ? pills.get(pillIndex) : Boolean.TRUE.equals(game.isPillStillAvailable(pillIndex));
+    }
+
+    public boolean hasPowerPill(int nodeIndex){
+        int powerPillIndex = game.getPowerPillIndex(nodeIndex);
+        if(powerPillIndex == -1) return false;
+        Boolean available = game.isPowerPillStillAvailable(powerPillIndex);
+        return pills != null ? available == null || available : Boolean.TRUE.equals(available);
+    }
+
+    public int getShortestPathDistance(int fromNodeIndex, int toNodeIndex){ return game.getShortestPathDistance(fromNodeIndex, toNodeIndex); }
+
+    /**
+     * Path queries are answered from the maze's path tables, which gives the same move as the
+     * engine without comparing the distance of every neighbour.
+     */
+    public MOVE getNextMoveTowardsTarget(int fromNodeIndex, int toNodeIndex, DM distanceMeasure){
+        if(distanceMeasure != DM.PATH)
+            return game.getNextMoveTowardsTarget(fromNodeIndex, toNodeIndex, distanceMeasure);
+        if(paths == null || !paths.isFor(game.getCurrentMaze()))
+            paths = PathTables.forGame(game);
+        return paths.getNextMoveTowardsTarget(fromNodeIndex, toNodeIndex);
+    }
+
+    public MOVE getNextMoveTowardsTarget(int fromNodeIndex, int toNodeIndex, MOVE lastMoveMade, DM distanceMeasure){
+        return game.getNextMoveTowardsTarget(fromNodeIndex, toNodeIndex, lastMoveMade, distanceMeasure);
+    }
+
+    public MOVE getApproximateNextMoveAwayFromTarget(int fromNodeIndex, int toNodeIndex, MOVE lastMoveMade, DM distanceMeasure){
+        return game.getApproximateNextMoveAwayFromTarget(fromNodeIndex, toNodeIndex, lastMoveMade, distanceMeasure);
+    }
+
+    public void advanceGame(MOVE pacManMove, EnumMap<GHOST, MOVE> ghostMoves){ game.advanceGame(pacManMove, ghostMoves); }
+
+    public boolean wasPacManEaten(){ return game.wasPacManEaten(); }
+
+    public boolean wasPillEaten(){ return game.wasPillEaten(); }
+
+    public boolean wasPowerPillEaten(){ return game.wasPowerPillEaten(); }
+
+    public boolean wasGhostEaten(GHOST ghost){ return game.wasGhostEaten(ghost); }
+
+    public int getGhostCurrentEdibleScore(){ return game.getGhostCurrentEdibleScore(); }
+
+    public int getScore(){ return game.getScore(); }
+}
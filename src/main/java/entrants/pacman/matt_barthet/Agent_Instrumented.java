@@ -0,0 +1,155 @@
+package entrants.pacman.matt_barthet;
+
+import pacman.controllers.PacmanController;
+import pacman.game.Constants.MOVE;
+import pacman.game.Game;
+
+import java.util.Arrays;
+
+public class Agent_Instrumented extends PacmanController {
+
+    /**
+     * Decorator timing every decision of a Ms. Pacman controller.  The latency of each call to
+     * getMove is recorded into a histogram, along with how much search the controller did in the
+     * tick (for controllers reporting it through WorkCounter) and how often the move came back
+     * after the deadline it was given.  The summary is printed by report at the end of a game.
+     */
+    private final PacmanController controller;
+    private final Histogram latencies = new Histogram();
+    private long ticks, missedDeadlines, work;
+
+    /**
+     * @param controller: the controller being measured.
+     */
+    public Agent_Instrumented(PacmanController controller){
+        this.controller = controller;
+    }
+
+    public MOVE getMove(Game game, long timeDue){
+        long workBefore = workDone();
+        long start = System.nanoTime();
+        MOVE move = controller.getMove(game, timeDue);
+        latencies.record(System.nanoTime() - start);
+
+        //A time due of zero or less means the game is being played without a time limit
+        if(timeDue > 0 && System.currentTimeMillis() > timeDue)
+            missedDeadlines++;
+        work += workDone() - workBefore;
+        ticks++;
+        return move;
+    }
+
+    public String getName(){ return controller.getName(); }
+
+    private long workDone(){
+        return controller instanceof WorkCounter ? ((WorkCounter) controller).workDone() : 0;
+    }
+
+    /**
+     * Prints the latency percentiles, missed deadlines and search effort per tick of the game
+     * just played, then starts measuring afresh.
+     */
+    public void report(){
+        String name = controller.getClass().getSimpleName();
+        if(ticks == 0){
+            System.out.println(name + ": no decisions made.");
+            return;
+        }
+        String summary = name + ": " + ticks + " ticks"
+                + "\tLatency p50: " + milliseconds(latencies.percentile(50))
+                + "\tp99: " + milliseconds(latencies.percentile(99))
+                + "\tmax: " + milliseconds(latencies.max())
+                + "\tMissed deadlines: " + missedDeadlines;
+        if(controller instanceof WorkCounter)
+            summary += "\t" + String.format("%.1f", (double) work / ticks) + " " + ((WorkCounter) controller).workUnit() + " per tick";
+        System.out.println(summary);
+        if(controller instanceof WorkCounter && ((WorkCounter) controller).workDetails() != null)
+            System.out.println(name + ": " + ((WorkCounter) controller).workDetails());
+        latencies.clear();
+        ticks = missedDeadlines = work = 0;
+    }
+
+    private static String milliseconds(long nanoseconds){
+        return String.format("%.2f ms", nanoseconds / 1e6);
+    }
+
+    /**
+     * @interface WorkCounter: implemented by controllers which can say how much search they have
+     * done, e.g. how many rollouts, generations or episodes they have run.
+     */
+    public interface WorkCounter {
+
+        /**
+         * @return the total amount of work done so far, never decreasing.
+         */
+        long workDone();
+
+        /**
+         * @return the name of a unit of work, e.g. "episodes".
+         */
+        String workUnit();
+
+        /**
+         * @return anything else worth reporting about how the work was done, or null.
+         */
+        default String workDetails(){ return null; }
+    }
+
+    /**
+     * @class Histogram: HDR-style log-linear histogram of non-negative values.  Every power of two
+     * is split into SUB_BUCKETS / 2 equal buckets, so a value is reported to within 1/64 of itself
+     * whatever its magnitude, with a fixed array of counters and no allocation when recording.
+     */
+    static class Histogram {
+
+        private final static int SUB_BITS = 7, SUB_BUCKETS = 1 << SUB_BITS, HALF = SUB_BUCKETS / 2;
+        private final long[] counts = new long[(Long.SIZE - SUB_BITS + 1) * HALF + HALF];
+        private long total, max;
+
+        void record(long value){
+            value = Math.max(value, 0);
+            counts[index(value)]++;
+            total++;
+            max = Math.max(max, value);
+        }
+
+        /**
+         * Values below SUB_BUCKETS get a bucket each; above that, a value with its top bit at
+         * position (SUB_BITS - 1 + shift) is bucketed by its top SUB_BITS bits.
+         */
+        private static int index(long value){
+            int shift = Math.max(Long.SIZE - SUB_BITS - Long.numberOfLeadingZeros(value), 0);
+            return (shift * HALF) + (int) (value >>> shift);
+        }
+
+        /**
+         * @return the largest value which falls into the bucket.
+         */
+        private static long highestValue(int index){
+            if(index < SUB_BUCKETS) return index;
+            int shift = index / HALF - 1;
+            long next = (long) (index - shift * HALF + 1) << shift;
+            return next <= 0 ? Long.MAX_VALUE : next - 1;
+        }
+
+        /**
+         * @param percentile: the percentile wanted, between 0 and 100.
+         * @return the value at or below which the given percentage of the values fall.
+         */
+        long percentile(double percentile){
+            long rank = Math.max((long) Math.ceil(total * percentile / 100), 1), seen = 0;
+            for(int i = 0; i < counts.length; i++){
+                seen += counts[i];
+                if(seen >= rank) return Math.min(highestValue(i), max);
+            }
+            return max;
+        }
+
+        long max(){ return max; }
+
+        void clear(){
+            Arrays.fill(counts, 0);
+            total = max = 0;
+        }
+    }
+}
@@ -0,0 +1,171 @@
+package entrants.pacman.matt_barthet;
+
+import pacman.game.Constants;
+
+import java.util.SplittableRandom;
+
+import static entrants.pacman.matt_barthet.Agent_StateEncoder.ACTIONS;
+
+public class Agent_LinearQ {
+
+    /**
+     * Linear function approximation of the Q-function: Q(S,A) is the dot product of the state's
+     * feature vector with the weight vector of action A.  The weights of every action are kept
+     * back to back in a single float array, so a lookup or an update is one tight loop over
+     * contiguous memory, and the memory used only grows with the number of features rather than
+     * the number of states.
+     */
+    public final static int NUM_ACTIONS = ACTIONS.length;
+    final float[] weights;
+    private final int features;
+
+    /**
+     * Allocates a model with every weight at zero.
+     * @param features: the length of the feature vectors.
+     */
+    public Agent_LinearQ(int features){
+        this.features = features;
+        weights = new float[features * NUM_ACTIONS];
+    }
+
+    /**
+     * @return the length of the feature vectors.
+     */
+    public int featureCount(){ return features; }
+
+    /**
+     * @param phi: the feature vector of the state.
+     * @param action: the action index.
+     * @return the Q-Value of the state-action pair.
+     */
+    public float get(float[] phi, int action){
+        int base = action * features;
+        float value = 0;
+        for(int i = 0; i < features; i++){
+            value += weights[base + i] * phi[i];
+        }
+        return value;
+    }
+
+    /**
+     * Moves the Q-Value of a state-action pair towards a target with a semi-gradient step:
+     * W(A) = W(A) + Alpha * [Target - Q(S,A)] * Phi(S)
+     * As with the Q-table, learners on several threads update the weights without locking.
+     * @param phi: the feature vector of the state.
+     * @param action: the action index.
+     * @param target: the value observed for the pair, e.g. R + Gamma * max Q(S', A').
+     * @param learningRate: the step size Alpha.
+     */
+    public void update(float[] phi, int action, float target, float learningRate){
+        float step = learningRate * (target - get(phi, action));
+        int base = action * features;
+        for(int i = 0; i < features; i++){
+            weights[base + i] += step * phi[i];
+        }
+    }
+
+    /**
+     * @param phi: the feature vector of the state.
+     * @param legal: bit i is set if action i can be taken from the state.
+     * @return the legal action with the highest Q-Value, the first one in action order on ties.
+     */
+    public int bestAction(float[] phi, int legal){
+        int best = -1;
+        float bestValue = 0;
+        for(int action = 0; action < NUM_ACTIONS; action++){
+            if((legal & (1 << action)) == 0) continue;
+            float value = get(phi, action);
+            if(best == -1 || value > bestValue){
+                best = action;
+                bestValue = value;
+            }
+        }
+        return best == -1 ? 0 : best;
+    }
+
+    /**
+     * @param phi: the feature vector of the state.
+     * @param legal: bit i is set if action i can be taken from the state.
+     * @return the highest Q-Value of the legal actions in the state.
+     */
+    public float bestValue(float[] phi, int legal){ return get(phi, bestAction(phi, legal)); }
+
+    /**
+     * @param legal: bit i is set if action i can be taken from the state.
+     * @param random: the generator used for the draw.
+     * @return one of the legal actions, chosen uniformly at random.
+     */
+    public static int randomAction(int legal, SplittableRandom random){
+        if(legal == 0) return random.nextInt(NUM_ACTIONS);
+        int choice = random.nextInt(Integer.bitCount(legal));
+        for(int action = 0; action < NUM_ACTIONS; action++){
+            if((legal & (1 << action)) != 0 && choice-- == 0)
+                return action;
+        }
+        return 0;
+    }
+
+    /**
+     * @class Features: writes what Ms. Pacman can see of a game into a feature vector, with every
+     * feature scaled into [0, 1] so a single learning rate suits them all.  Per action, in
+     * ACTIONS order, the vector holds whether there is a wall, how close the nearest hostile and
+     * edible ghosts down that way are and whether the nearest pill lies that way, followed by the
+     * direction Ms. Pacman is moving in, the closeness of the nearest power pill and a bias term.
+     */
+    public static class Features {
+
+        public final static int WALL = 0, THREAT = 4, EDIBLE = 8, PILL = 12, DIRECTION = 16, POWER_PILL = 20, BIAS = 21;
+        public final static int COUNT = 22;
+        private final static float GHOST_RANGE = 40, POWER_PILL_RANGE = 50;
+        private final ThreadLocal<Agent_StateEncoder.PillSearch> searches = ThreadLocal.withInitial(Agent_StateEncoder.PillSearch::new);
+
+        /**
+         * @param game: the game being observed.
+         * @param location: Ms. Pacman's location in the maze.
+         * @param phi: receives the feature vector, of length COUNT.
+         * @return the legal actions, with bit i set if action i doesn't move Ms. Pacman into a barrier.
+         */
+        public int extract(Agent_Simulation game, int location, float[] phi){
+            int legal = 0;
+            for(int i = 0; i < COUNT; i++){
+                phi[i] = 0;
+            }
+
+            for(int i = 0; i < ACTIONS.length; i++){
+                if(game.getNeighbour(location, ACTIONS[i]) == -1){
+                    phi[WALL + i] = 1;
+                } else {
+                    legal |= 1 << i;
+                }
+            }
+
+            //Keep the closest ghost of each kind in every direction
+            for(Constants.GHOST ghost : Constants.GHOST.values()){
+                int ghostLocation = game.getGhostCurrentNodeIndex(ghost);
+                if(ghostLocation == -1 || ghostLocation == location) continue;
+                int distance = game.getShortestPathDistance(location, ghostLocation);
+                int direction = Agent_StateEncoder.moveToInteger(game.getNextMoveTowardsTarget(location, ghostLocation, Constants.DM.PATH));
+                int feature = (game.getGhostEdibleTime(ghost) > 0 ? EDIBLE : THREAT) + direction;
+                phi[feature] = Math.max(phi[feature], closeness(distance, GHOST_RANGE));
+            }
+
+            int pillDirection = searches.get().nearestPill(game, location);
+            if(pillDirection < ACTIONS.length)
+                phi[PILL + pillDirection] = 1;
+
+            phi[DIRECTION + Agent_StateEncoder.moveToInteger(game.getPacmanLastMoveMade())] = 1;
+
+            for(int node : game.getPowerPillIndices()){
+                if(game.hasPowerPill(node))
+                    phi[POWER_PILL] = Math.max(phi[POWER_PILL], closeness(game.getShortestPathDistance(location, node), POWER_PILL_RANGE));
+            }
+
+            phi[BIAS] = 1;
+            return legal;
+        }
+
+        private static float closeness(int distance, float range){
+            return distance >= range ? 0 : 1 - distance / range;
+        }
+    }
+}
@@ -0,0 +1,292 @@
+package entrants.pacman.matt_barthet;
+
+import pacman.game.Constants;
+import pacman.game.Constants.GHOST;
+import pacman.game.Constants.MOVE;
+import pacman.game.Game;
+import pacman.game.internal.Maze;
+import pacman.game.internal.Node;
+import prediction.PillModel;
+import prediction.fast.GhostSamplerFast;
+
+import java.util.BitSet;
+import java.util.IdentityHashMap;
+
+public class Agent_MacroGraph {
+
+    /**
+     * Macro-actions used by the planners: from a node, keep applying the same move until Ms. Pacman
+     * reaches a junction or the move can no longer be applied.  Every node and direction's corridor
+     * is stored in flat arrays, indexed by (node * 4 + move ordinal).
+     */
+    private final static IdentityHashMap<Maze, Agent_MacroGraph> graphs = new IdentityHashMap<>();
+    private final static MOVE[] MOVES = new MOVE[]{MOVE.UP, MOVE.RIGHT, MOVE.DOWN, MOVE.LEFT};
+    final Maze maze;
+    private final int[] corridorStart, corridorLength;
+    private final int[] corridorNodes, corridorPills, corridorPowerPills;
+
+    /**
+     * Returns the macro graph of the given maze, building it the first time the maze is seen.
+     * @param maze: the maze being played.
+     * @return the maze's macro graph.
+     */
+    public static synchronized Agent_MacroGraph get(Maze maze){
+        Agent_MacroGraph graph = graphs.get(maze);
+        if(graph == null){
+            graph = new Agent_MacroGraph(maze);
+            graphs.put(maze, graph);
+        }
+        return graph;
+    }
+
+    /**
+     * Walks every corridor of the maze once, first to size the flat arrays and then to fill them.
+     * @param maze: the maze the graph is built for.
+     */
+    private Agent_MacroGraph(Maze maze){
+        this.maze = maze;
+        Node[] graph = maze.graph;
+        corridorStart = new int[graph.length * MOVES.length];
+        corridorLength = new int[graph.length * MOVES.length];
+
+        int total = 0;
+        for(int node = 0; node < graph.length; node++){
+            for(MOVE move : MOVES){
+                int length = walk(node, move, null, 0);
+                corridorStart[index(node, move)] = length == 0 ? -1 : total;
+                corridorLength[index(node, move)] = length;
+                total += length;
+            }
+        }
+
+        corridorNodes = new int[total];
+        corridorPills = new int[total];
+        corridorPowerPills = new int[total];
+        for(int node = 0; node < graph.length; node++){
+            for(MOVE move : MOVES){
+                if(corridorStart[index(node, move)] != -1)
+                    walk(node, move, corridorNodes, corridorStart[index(node, move)]);
+            }
+        }
+        for(int i = 0; i < total; i++){
+            corridorPills[i] = graph[corridorNodes[i]].pillIndex;
+            corridorPowerPills[i] = graph[corridorNodes[i]].powerPillIndex;
+        }
+    }
+
+    /**
+     * Follows a move from a node until reaching a junction or a node where the move is blocked.
+     * @param node: the starting node.
+     * @param move: the move being applied.
+     * @param output: array the visited nodes are written to, or null to only measure the corridor.
+     * @param offset: position in the output of the corridor's first node.
+     * @return the number of steps in the corridor (0 if the move is blocked straight away).
+     */
+    private int walk(int node, MOVE move, int[] output, int offset){
+        Node[] graph = maze.graph;
+        int length = 0;
+        Integer next = graph[node].neighbourhood.get(move);
+        while(next != null && length < graph.length){
+            if(output != null)
+                output[offset + length] = next;
+            length++;
+            if(graph[next].numNeighbouringNodes > 2)
+                break;
+            next = graph[next].neighbourhood.get(move);
+        }
+        return length;
+    }
+
+    /**
+     * @param node: the starting node.
+     * @param move: the move being applied.
+     * @return the corridor's position in the lookup arrays.
+     */
+    private static int index(int node, MOVE move){ return node * MOVES.length + move.ordinal(); }
+
+    /**
+     * @param node: the starting node.
+     * @param move: the move being applied.
+     * @return the node Ms. Pacman stops at, or -1 if the move is blocked at this node.
+     */
+    public int getDestination(int node, MOVE move){
+        int corridor = index(node, move);
+        if(move == MOVE.NEUTRAL || corridorStart[corridor] == -1) return -1;
+        return corridorNodes[corridorStart[corridor] + corridorLength[corridor] - 1];
+    }
+
+    /**
+     * @param node: the starting node.
+     * @param move: the move being applied.
+     * @return the number of ticks spent in the corridor, or 0 if the move is blocked at this node.
+     */
+    public int getLength(int node, MOVE move){
+        if(move == MOVE.NEUTRAL) return 0;
+        return corridorLength[index(node, move)];
+    }
+
+    /**
+     * @return true if the node is a junction of the maze.
+     */
+    private boolean isJunction(int node){ return maze.graph[node].numNeighbouringNodes > 2; }
+
+    /**
+     * @class Rollout: approximate simulation of Ms. Pacman's plan which jumps a whole corridor per
+     * macro-action instead of advancing the game tick by tick.  Ghosts are held at their positions
+     * from the start of each corridor: a hostile ghost catches Ms. Pacman if it could reach a node of
+     * the corridor before she leaves it, and is then moved along its shortest path towards her.
+     * Only the GA scores plans with it.  The TDL learner is kept on Agent_Simulation on purpose:
+     * its state encoders and reward read the ghosts' positions and edible times and the per-tick
+     * eaten events, none of which the rollout keeps, and Q-Values learned from its approximate
+     * outcomes would be stored as if they were the game's.  Its episodes already advance junction
+     * to junction on the compact forward model.
+     */
+    public static class Rollout{
+
+        private final static int NUM_GHOSTS = GHOST.values().length;
+        private Agent_MacroGraph graph;
+        private Game game;
+        private final BitSet pills = new BitSet();
+        private final boolean[] powerPills = new boolean[8];
+        private final int[] ghostNode = new int[NUM_GHOSTS], ghostEdibleTime = new int[NUM_GHOSTS];
+        private final MOVE[] ghostMove = new MOVE[NUM_GHOSTS];
+        private int pacman, score, ghostMultiplier, edibleTime;
+        private MOVE lastMove;
+        private boolean eaten;
+
+        /**
+         * Resets the rollout to Ms. Pacman's current state and a determinised placement of the ghosts.
+         * @param game: the game being played, used for the maze and its path distances.
+         * @param sampler: this tick's sampler of ghost locations (ghosts it can't place are ignored).
+         * @param edibleTimes: the estimated edible time of each ghost.
+         * @param pillModel: snapshot of the pills believed to still be in the maze.
+         */
+        public void reset(Game game, GhostSamplerFast sampler, int[] edibleTimes, PillModel.Snapshot pillModel){
+            this.game = game;
+            graph = Agent_MacroGraph.get(game.getCurrentMaze());
+            pacman = game.getPacmanCurrentNodeIndex();
+            lastMove = game.getPacmanLastMoveMade();
+            score = 0;
+            eaten = false;
+            ghostMultiplier = 1;
+            edibleTime = (int) (Constants.EDIBLE_TIME * Math.pow(Constants.EDIBLE_TIME_REDUCTION, game.getCurrentLevel() % Constants.LEVEL_RESET_REDUCTION));
+            pillModel.copyInto(pills);
+            for(int i = 0; i < game.getPowerPillIndices().length && i < powerPills.length; i++){
+                Boolean available = game.isPowerPillStillAvailable(i);
+                powerPills[i] = available == null || available;
+            }
+            sampler.sampleInto(ghostNode, ghostMove, Agent_Random.current());
+            for(int ghost = 0; ghost < NUM_GHOSTS; ghost++){
+                if(ghostNode[ghost] == -1)
+                    ghostMove[ghost] = MOVE.NEUTRAL;
+                ghostEdibleTime[ghost] = Math.max(edibleTimes[ghost], 0);
+            }
+        }
+
+        /**
+         * Applies a macro-action the same way the planners apply a micro action to the full game:
+         * the move is repeated until Ms. Pacman reaches a junction or the move is blocked.
+         * @param move: the move being applied.
+         * @return false if Ms. Pacman was eaten along the way.
+         */
+        public boolean advance(MOVE move){
+            if(eaten) return false;
+            if(graph.getLength(pacman, move) == 0){
+                //The game keeps Ms. Pacman moving in her previous direction when the move is blocked
+                if(graph.getLength(pacman, lastMove) == 0){
+                    traverse(-1, 1);
+                    return !eaten;
+                }
+                traverse(graph.corridorStart[index(pacman, lastMove)], 1);
+                if(eaten || graph.isJunction(pacman) || graph.getLength(pacman, move) == 0)
+                    return !eaten;
+            }
+            int corridor = index(pacman, move);
+            lastMove = move;
+            traverse(graph.corridorStart[corridor], graph.corridorLength[corridor]);
+            return !eaten;
+        }
+
+        /**
+         * Moves Ms. Pacman along the first steps of a corridor, collecting pills and checking every
+         * node against the ghosts, then moves the ghosts for the time that has passed.
+         * @param start: position of the corridor's first node in the flat arrays, or -1 if Ms. Pacman stays put.
+         * @param steps: number of ticks spent in the corridor.
+         */
+        private void traverse(int start, int steps){
+            for(int k = 1; k <= steps && !eaten; k++){
+                int node = start == -1 ? pacman : graph.corridorNodes[start + k - 1];
+                if(start != -1){
+                    int pill = graph.corridorPills[start + k - 1];
+                    if(pill != -1 && pills.get(pill)){
+                        pills.clear(pill);
+                        score += Constants.PILL;
+                    }
+                    int powerPill = graph.corridorPowerPills[start + k - 1];
+                    if(powerPill != -1 && powerPill < powerPills.length && powerPills[powerPill]){
+                        powerPills[powerPill] = false;
+                        score += Constants.POWER_PILL;
+                        ghostMultiplier = 1;
+                        for(int ghost = 0; ghost < NUM_GHOSTS; ghost++)
+                            ghostEdibleTime[ghost] = edibleTime + k;
+                    }
+                }
+                for(int ghost = 0; ghost < NUM_GHOSTS; ghost++){
+                    if(ghostNode[ghost] == -1) continue;
+                    int distance = game.getShortestPathDistance(ghostNode[ghost], node);
+                    if(ghostEdibleTime[ghost] > k){
+                        if(distance <= Constants.EAT_DISTANCE){
+                            score += Constants.GHOST_EAT_SCORE * ghostMultiplier;
+                            ghostMultiplier *= 2;
+                            ghostNode[ghost] = -1;
+                        }
+                    } else if(distance <= k + Constants.EAT_DISTANCE){
+                        eaten = true;
+                    }
+                }
+            }
+            if(start != -1)
+                pacman = graph.corridorNodes[start + steps - 1];
+            for(int ghost = 0; ghost < NUM_GHOSTS; ghost++){
+                if(ghostNode[ghost] == -1) continue;
+                boolean edible = ghostEdibleTime[ghost] > 0;
+                moveGhost(ghost, edible ? steps / Constants.GHOST_SPEED_REDUCTION : steps, edible);
+                ghostEdibleTime[ghost] = Math.max(ghostEdibleTime[ghost] - steps, 0);
+            }
+        }
+
+        /**
+         * Moves a ghost along the maze without reversing, choosing at junctions the neighbour that
+         * takes it towards Ms. Pacman (or away from her if it is edible).
+         * @param ghost: ordinal of the ghost being moved.
+         * @param steps: number of nodes the ghost moves.
+         * @param edible: whether the ghost is fleeing from Ms. Pacman.
+         */
+        private void moveGhost(int ghost, int steps, boolean edible){
+            Node[] nodes = graph.maze.graph;
+            for(int step = 0; step < steps; step++){
+                Node node = nodes[ghostNode[ghost]];
+                MOVE back = ghostMove[ghost].opposite();
+                MOVE chosen = null;
+                int bestDistance = 0;
+                for(MOVE move : MOVES){
+                    Integer next = node.neighbourhood.get(move);
+                    if(next == null || (move == back && node.numNeighbouringNodes > 1)) continue;
+                    int distance = game.getShortestPathDistance(next, pacman);
+                    if(chosen == null || (edible ? distance > bestDistance : distance < bestDistance)){
+                        chosen = move;
+                        bestDistance = distance;
+                    }
+                }
+                if(chosen == null) return;
+                ghostMove[ghost] = chosen;
+                ghostNode[ghost] = node.neighbourhood.get(chosen);
+            }
+        }
+
+        /**
+         * @return the score collected so far in the rollout.
+         */
+        public int getScore(){ return score; }
+    }
+}
@@ -0,0 +1,250 @@
+package entrants.pacman.matt_barthet;
+
+import pacman.controllers.MASController;
+import pacman.game.Constants;
+import pacman.game.Constants.GHOST;
+import pacman.game.Constants.MOVE;
+import pacman.game.Game;
+
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.SplittableRandom;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Predicts the moves of the ghost team during a rollout.  Models range from the cheap greedy chase
+ * to running real ghost controllers, and each one measures what it costs per simulated tick so
+ * simulation fidelity can be traded against the number of rollouts.
+ */
+public interface Agent_OpponentModel {
+
+    /**
+     * Writes the ghosts' moves for the next simulated tick into a buffer owned by the caller.
+     * @param game: the simulation being advanced.
+     * @param moves: buffer receiving the move of every ghost, overwritten on each call.
+     * @return the buffer.
+     */
+    EnumMap<GHOST, MOVE> getMoves(Agent_Simulation game, EnumMap<GHOST, MOVE> moves);
+
+    /**
+     * @return the average time in nanoseconds the model has spent deciding a simulated tick.
+     */
+    double getCostPerTick();
+
+    /**
+     * @return a readable summary of the model and its cost.
+     */
+    default String describe(){
+        return getClass().getSimpleName() + String.format(" opponent model, %.0f ns per simulated tick", getCostPerTick());
+    }
+
+    /**
+     * @class Timed: base of the models, timing one in every SAMPLE_INTERVAL ticks on each thread so
+     * that measuring the cost doesn't add to it.
+     */
+    abstract class Timed implements Agent_OpponentModel {
+
+        private final static int SAMPLE_INTERVAL = 64;
+        private final ThreadLocal<int[]> ticks = ThreadLocal.withInitial(() -> new int[1]);
+        private final LongAdder samples = new LongAdder(), nanoseconds = new LongAdder();
+
+        public final EnumMap<GHOST, MOVE> getMoves(Agent_Simulation game, EnumMap<GHOST, MOVE> moves){
+            int[] tick = ticks.get();
+            if(++tick[0] < SAMPLE_INTERVAL)
+                return decide(game, moves);
+            tick[0] = 0;
+            long start = System.nanoTime();
+            decide(game, moves);
+            nanoseconds.add(System.nanoTime() - start);
+            samples.increment();
+            return moves;
+        }
+
+        public double getCostPerTick(){
+            long count = samples.sum();
+            return count == 0 ? 0 : (double) nanoseconds.sum() / count;
+        }
+
+        /**
+         * @param game: the simulation being advanced.
+         * @param moves: buffer receiving the move of every ghost.
+         * @return the buffer.
+         */
+        protected abstract EnumMap<GHOST, MOVE> decide(Agent_Simulation game, EnumMap<GHOST, MOVE> moves);
+    }
+
+    /**
+     * @class Greedy: every ghost chases Ms. Pacman along the shortest path, or flees while edible.
+     */
+    class Greedy extends Timed {
+
+        protected EnumMap<GHOST, MOVE> decide(Agent_Simulation game, EnumMap<GHOST, MOVE> moves){
+            return Agent_Utility.getBasicGhostMoves(game, moves);
+        }
+    }
+
+    /**
+     * @class Probabilistic: the policy of the POGhost example.  At a junction a ghost retreats if it
+     * is edible or Ms. Pacman is near a power pill, otherwise it chases her with probability
+     * CONSISTENCY and takes a random legal move the rest of the time.
+     */
+    class Probabilistic extends Timed {
+
+        private final static float CONSISTENCY = 0.9f;
+        private final static int PILL_PROXIMITY = 15;
+        private final static MOVE[] DIRECTIONS = new MOVE[]{MOVE.UP, MOVE.RIGHT, MOVE.DOWN, MOVE.LEFT};
+
+        protected EnumMap<GHOST, MOVE> decide(Agent_Simulation game, EnumMap<GHOST, MOVE> moves){
+            int pacmanLocation = game.getPacmanCurrentNodeIndex();
+            boolean closeToPower = closeToPower(game, pacmanLocation);
+            SplittableRandom random = Agent_Random.current();
+            for(GHOST ghost : GHOST.values()){
+                int index = game.getGhostCurrentNodeIndex(ghost);
+                MOVE previousMove = game.getGhostLastMoveMade(ghost);
+                if(index == -1 || previousMove == null){
+                    moves.remove(ghost);
+                } else if(!game.isJunction(index)){
+                    moves.put(ghost, previousMove);
+                } else if(game.isGhostEdible(ghost) || closeToPower){
+                    moves.put(ghost, game.getApproximateNextMoveAwayFromTarget(index, pacmanLocation, previousMove, Constants.DM.PATH));
+                } else if(random.nextFloat() < CONSISTENCY){
+                    moves.put(ghost, game.getNextMoveTowardsTarget(index, pacmanLocation, previousMove, Constants.DM.PATH));
+                } else {
+                    moves.put(ghost, randomMove(game, index, previousMove, random));
+                }
+            }
+            return moves;
+        }
+
+        private static boolean closeToPower(Agent_Simulation game, int pacmanLocation){
+            for(int node : game.getPowerPillIndices()){
+                if(game.hasPowerPill(node) && game.getShortestPathDistance(node, pacmanLocation) < PILL_PROXIMITY)
+                    return true;
+            }
+            return false;
+        }
+
+        /**
+         * @return one of the moves out of the node which doesn't reverse the ghost, chosen uniformly.
+         */
+        private static MOVE randomMove(Agent_Simulation game, int index, MOVE previousMove, SplittableRandom random){
+            MOVE back = previousMove.opposite(), chosen = previousMove;
+            int options = 0;
+            for(MOVE move : DIRECTIONS){
+                if(move != back && game.getNeighbour(index, move) != -1 && random.nextInt(++options) == 0)
+                    chosen = move;
+            }
+            return chosen;
+        }
+    }
+
+    /**
+     * @class CachedController: runs a real ghost team on the full game being simulated.  Each thread gets
+     * its own team from the supplier, as controllers aren't thread safe.  The team is only asked for
+     * moves when a ghost is at a junction, and its answers are remembered in a direct-mapped cache
+     * keyed on the positions and headings of every character, the edible and lair times of the
+     * ghosts and which power pills remain, so states revisited by other rollouts reuse them.  A
+     * thread's cache is emptied whenever it is asked about a different maze or level, as the same
+     * nodes then mean different places.  The cache stores one answer per
+     * state, so a team which decides at random is frozen to whichever sample it gave first until the
+     * entry is evicted.  Simulations which aren't full games, such as the compact forward model,
+     * fall back to another model.
+     */
+    class CachedController extends Timed {
+
+        private final static int CACHE_SIZE = 1 << 12;
+        private final static int NODE_BITS = 11;
+        private final static GHOST[] GHOSTS = GHOST.values();
+        private final static MOVE[] MOVES = MOVE.values();
+        private final ThreadLocal<Cache> caches;
+        private final Agent_OpponentModel fallback;
+
+        /**
+         * @param team: creates a new instance of the ghost team, called once per thread.
+         * @param fallback: the model used for simulations which aren't full games.
+         */
+        public CachedController(Supplier<MASController> team, Agent_OpponentModel fallback){
+            this.caches = ThreadLocal.withInitial(() -> new Cache(team.get()));
+            this.fallback = fallback;
+        }
+
+        protected EnumMap<GHOST, MOVE> decide(Agent_Simulation game, EnumMap<GHOST, MOVE> moves){
+            if(!(game instanceof Agent_GameSimulation))
+                return fallback.getMoves(game, moves);
+
+            Game full = ((Agent_GameSimulation) game).getGame();
+            MOVE pacmanMove = full.getPacmanLastMoveMade();
+            boolean decision = false;
+            long positions = game.getPacmanCurrentNodeIndex(), headings = pacmanMove == null ? MOVE.NEUTRAL.ordinal() : pacmanMove.ordinal();
+            for(GHOST ghost : GHOSTS){
+                int index = game.getGhostCurrentNodeIndex(ghost);
+                MOVE previousMove = game.getGhostLastMoveMade(ghost);
+                decision |= index != -1 && game.isJunction(index);
+                positions = positions << NODE_BITS | (index & ((1 << NODE_BITS) - 1));
+                headings = headings << 4 | (previousMove == null ? MOVE.NEUTRAL.ordinal() : previousMove.ordinal()) << 1 | (game.isGhostEdible(ghost) ? 1 : 0);
+            }
+            //Teams such as POGhost retreat near a remaining power pill, so eating one changes their answer
+            for(int powerPill : game.getPowerPillIndices()){
+                headings = headings << 1 | (game.hasPowerPill(powerPill) ? 1 : 0);
+            }
+
+            //Between junctions the engine keeps the ghosts moving as they were
+            if(!decision){
+                for(GHOST ghost : GHOSTS){
+                    moves.remove(ghost);
+                }
+                return moves;
+            }
+
+            //Teams choose differently as a ghost's edible time runs out or its release nears, 8 bits of each per ghost
+            long timers = 0;
+            for(GHOST ghost : GHOSTS){
+                timers = timers << 8 | Math.min(Math.max(full.getGhostEdibleTime(ghost), 0), 255);
+                timers = timers << 8 | Math.min(Math.max(full.getGhostLairTime(ghost), 0), 255);
+            }
+
+            Cache cache = caches.get();
+            if(cache.maze != full.getMazeIndex() || cache.level != full.getCurrentLevel()){
+                Arrays.fill(cache.filled, false);
+                cache.maze = full.getMazeIndex();
+                cache.level = full.getCurrentLevel();
+            }
+            int slot = (int) ((positions * 0x9E3779B97F4A7C15L ^ headings ^ timers * 0xC2B2AE3D27D4EB4FL) >>> 52) & (CACHE_SIZE - 1);
+            if(!cache.filled[slot] || cache.positions[slot] != positions || cache.headings[slot] != headings || cache.timers[slot] != timers){
+                EnumMap<GHOST, MOVE> decided = cache.team.getMove(full, 0);
+                int packed = 0;
+                for(GHOST ghost : GHOSTS){
+                    MOVE move = decided == null ? null : decided.get(ghost);
+                    packed |= (move == null ? MOVE.NEUTRAL.ordinal() : move.ordinal()) << (ghost.ordinal() * 3);
+                }
+                cache.positions[slot] = positions;
+                cache.headings[slot] = headings;
+                cache.timers[slot] = timers;
+                cache.moves[slot] = packed;
+                cache.filled[slot] = true;
+            }
+            for(GHOST ghost : GHOSTS){
+                MOVE move = MOVES[(cache.moves[slot] >> (ghost.ordinal() * 3)) & 7];
+                if(move == MOVE.NEUTRAL) moves.remove(ghost);
+                else moves.put(ghost, move);
+            }
+            return moves;
+        }
+
+        /**
+         * @class Cache: one thread's ghost team and the moves it has decided, in parallel arrays.
+         */
+        private static class Cache {
+            final MASController team;
+            final long[] positions = new long[CACHE_SIZE], headings = new long[CACHE_SIZE], timers = new long[CACHE_SIZE];
+            final int[] moves = new int[CACHE_SIZE];
+            final boolean[] filled = new boolean[CACHE_SIZE];
+            int maze = -1, level = -1;
+
+            Cache(MASController team){
+                this.team = team;
+            }
+        }
+    }
+}
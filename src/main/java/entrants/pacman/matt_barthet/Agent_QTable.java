@@ -0,0 +1,414 @@
+package entrants.pacman.matt_barthet;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.LongToIntFunction;
+
+public class Agent_QTable {
+
+    /**
+     * Q-table held in flat arrays: every state is given a row, and the value of each state-action
+     * pair is kept at (row * NUM_ACTIONS + action) of a float array.  A bit mask per row prunes the
+     * actions which would move Ms. Pacman into a barrier, so lookups, argmax and updates are
+     * constant time and never allocate.  A dense table uses the agent's state codes as its rows,
+     * while a hashed table hands out rows to state codes the first time each one is seen, through
+     * an open-addressing hash map, so feature sets too large to enumerate only pay for the states
+     * actually visited.
+     */
+    public final static int NUM_ACTIONS = 4;
+    private final static byte ALL_ACTIONS = (1 << NUM_ACTIONS) - 1;
+    private final static int MAGIC = 0x51544233, HEADER_BYTES = 4 * Integer.BYTES;
+    private final static long EMPTY = -1L;
+    private static ExecutorService checkpointWriter;
+    final float[] values;
+    private final int[] visits;
+    private final byte[] legalActions;
+    private final int states;
+    private final LongToIntFunction legalMask;
+    private final AtomicLongArray slots;
+    private final int[] slotRows;
+    private final long[] rowCodes;
+    private volatile int rowsUsed;
+
+    /**
+     * Allocates a dense table with every value at zero and every action legal.
+     * @param states: the number of distinct state codes.
+     */
+    public Agent_QTable(int states){
+        this(states, null);
+    }
+
+    /**
+     * Allocates a hashed table, whose rows are given to state codes as they are first seen.
+     * @param capacity: the most distinct states the table can hold.
+     * @param legalMask: gives the legal actions of a state code when its row is created.
+     */
+    public Agent_QTable(int capacity, LongToIntFunction legalMask){
+        this.states = capacity;
+        this.legalMask = legalMask;
+        values = new float[capacity * NUM_ACTIONS];
+        visits = new int[capacity * NUM_ACTIONS];
+        legalActions = new byte[capacity];
+        Arrays.fill(legalActions, ALL_ACTIONS);
+        if(legalMask == null){
+            slots = null;
+            slotRows = null;
+            rowCodes = null;
+        } else {
+            //Keep the map at most half full so probe sequences stay short
+            int slotCount = Integer.highestOneBit(Math.max(capacity, 1)) << 2;
+            slots = new AtomicLongArray(slotCount);
+            for(int i = 0; i < slotCount; i++){
+                slots.set(i, EMPTY);
+            }
+            slotRows = new int[slotCount];
+            rowCodes = new long[capacity];
+        }
+    }
+
+    /**
+     * Finds the row holding a state, creating it the first time the state is seen.  Lookups
+     * never lock; only learners creating a new row synchronise with each other.
+     * @param code: the state code (never negative).
+     * @return the state's row, or -1 if a hashed table is already full.
+     */
+    public int row(long code){
+        if(slots == null) return (int) code;
+        int mask = slots.length() - 1;
+        for(int slot = hash(code) & mask;; slot = (slot + 1) & mask){
+            long key = slots.get(slot);
+            if(key == code) return slotRows[slot];
+            if(key == EMPTY) return insert(code);
+        }
+    }
+
+    private synchronized int insert(long code){
+        int mask = slots.length() - 1, slot = hash(code) & mask;
+        //Probe again under the lock, as another learner may have added the state in the meantime
+        for(long key = slots.get(slot); key != EMPTY; key = slots.get(slot)){
+            if(key == code) return slotRows[slot];
+            slot = (slot + 1) & mask;
+        }
+        if(rowsUsed == states) return -1;
+        int row = rowsUsed;
+        rowCodes[row] = code;
+        setLegalActions(row, legalMask.applyAsInt(code));
+        slotRows[slot] = row;
+        rowsUsed = row + 1;
+        //Publishing the key last makes the row and its legal actions visible to lock-free lookups
+        slots.set(slot, code);
+        return row;
+    }
+
+    private static int hash(long code){
+        code ^= code >>> 33;
+        code *= 0xff51afd7ed558ccdL;
+        code ^= code >>> 33;
+        return (int) code;
+    }
+
+    /**
+     * Restricts the actions which can be taken from a state.  A state left with no legal actions
+     * keeps all of them, so that every state always has a best action.
+     * @param state: the state code.
+     * @param mask: bit i is set if action i can be taken from the state.
+     */
+    public void setLegalActions(int state, int mask){
+        mask &= ALL_ACTIONS;
+        legalActions[state] = (byte) (mask == 0 ? ALL_ACTIONS : mask);
+    }
+
+    /**
+     * @param state: the state code.
+     * @param action: the action index.
+     * @return true if the action can be taken from the state.
+     */
+    public boolean isLegal(int state, int action){ return (legalActions[state] & (1 << action)) != 0; }
+
+    /**
+     * @param state: the state code.
+     * @param action: the action index.
+     * @return the Q-Value of the state-action pair.
+     */
+    public float get(int state, int action){ return values[state * NUM_ACTIONS + action]; }
+
+    /**
+     * Moves the Q-Value of a state-action pair towards a target using the formula:
+     * Q(S,A) = Q(S, A) + Alpha * [Target - Q(S,A)]
+     * Learners on several threads update the table without locking (Hogwild).  A racing update
+     * can be lost, but every value written lies between a value that was read and its target, so
+     * the table never drifts outside the range of the rewards being learned.
+     * @param state: the state code.
+     * @param action: the action index.
+     * @param target: the value observed for the pair, e.g. R + Gamma * max Q(S', A').
+     * @param learningRate: the step size Alpha.
+     */
+    public void update(int state, int action, float target, float learningRate){
+        int index = state * NUM_ACTIONS + action;
+        float value = values[index];
+        values[index] = value + learningRate * (target - value);
+    }
+
+    /**
+     * Adds an amount to the Q-Value of a state-action pair, as eligibility traces do when they
+     * share one TD error between every pair visited in an episode.
+     * @param state: the state code.
+     * @param action: the action index.
+     * @param amount: the change in the Q-Value.
+     */
+    public void adjust(int state, int action, float amount){
+        int index = state * NUM_ACTIONS + action;
+        values[index] = values[index] + amount;
+    }
+
+    /**
+     * Counts another visit to a state-action pair.  Learners on several threads count without
+     * locking, so a racing visit may occasionally go uncounted.
+     * @param state: the state code.
+     * @param action: the action index.
+     * @return the number of visits to the pair, including this one.
+     */
+    public int visit(int state, int action){
+        int index = state * NUM_ACTIONS + action;
+        int count = visits[index] + 1;
+        visits[index] = count;
+        return count;
+    }
+
+    /**
+     * @param state: the state code.
+     * @param action: the action index.
+     * @return the number of times the pair has been visited.
+     */
+    public int visits(int state, int action){ return visits[state * NUM_ACTIONS + action]; }
+
+    /**
+     * @param state: the state code.
+     * @return the number of times any action has been taken from the state.
+     */
+    public int stateVisits(int state){
+        int base = state * NUM_ACTIONS, total = 0;
+        for(int action = 0; action < NUM_ACTIONS; action++){
+            total += visits[base + action];
+        }
+        return total;
+    }
+
+    /**
+     * Chooses an action by the UCB1 rule, maximising Q(S,A) + c * sqrt(ln N(S) / N(S,A)), with
+     * legal actions never tried before taken first in action order.
+     * @param state: the state code.
+     * @param exploration: the exploration constant c.
+     * @return the chosen legal action.
+     */
+    public int upperConfidenceAction(int state, float exploration){
+        int base = state * NUM_ACTIONS, best = -1;
+        double logVisits = Math.log(Math.max(stateVisits(state), 1)), bestBound = 0;
+        for(int action = 0; action < NUM_ACTIONS; action++){
+            if(!isLegal(state, action)) continue;
+            int count = visits[base + action];
+            if(count == 0) return action;
+            double bound = values[base + action] + exploration * Math.sqrt(logVisits / count);
+            if(best == -1 || bound > bestBound){
+                best = action;
+                bestBound = bound;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * @param state: the state code.
+     * @return the legal action with the highest Q-Value, the first one in action order on ties.
+     */
+    public int bestAction(int state){
+        int base = state * NUM_ACTIONS, best = -1;
+        for(int action = 0; action < NUM_ACTIONS; action++){
+            if(isLegal(state, action) && (best == -1 || values[base + action] > values[base + best]))
+                best = action;
+        }
+        return best;
+    }
+
+    /**
+     * @param state: the state code.
+     * @return the highest Q-Value of the legal actions in the state.
+     */
+    public float bestValue(int state){ return get(state, bestAction(state)); }
+
+    /**
+     * @param state: the state code.
+     * @param random: the generator used for the draw.
+     * @return one of the state's legal actions, chosen uniformly at random.
+     */
+    public int randomAction(int state, SplittableRandom random){
+        int mask = legalActions[state];
+        int choice = random.nextInt(Integer.bitCount(mask));
+        for(int action = 0; action < NUM_ACTIONS; action++){
+            if((mask & (1 << action)) != 0 && choice-- == 0)
+                return action;
+        }
+        return bestAction(state);
+    }
+
+    /**
+     * @return the number of rows in the table.
+     */
+    public int size(){ return states; }
+
+    /**
+     * @return the number of rows holding a state (every row, for a dense table).
+     */
+    public int rowsUsed(){ return slots == null ? states : rowsUsed; }
+
+    /**
+     * Loads Q-Values saved by a previous game, reading the whole file through its channel in one
+     * go.  The file isn't memory-mapped: a mapping is only released when it is garbage collected,
+     * and while it lives some platforms (Windows) refuse to replace the file, which would stop
+     * every later checkpoint from being saved.  A missing file or one saved for a different table
+     * is ignored.
+     * @param file: the snapshot to load.
+     * @return true if the table now holds the snapshot's values.
+     */
+    public boolean load(Path file){
+        if(!Files.exists(file)) return false;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer buffer = channel.size() < HEADER_BYTES || channel.size() > Integer.MAX_VALUE ? null : read(channel);
+            int savedRows = buffer == null ? 0 : buffer.getInt(3 * Integer.BYTES);
+            boolean matches = buffer != null && buffer.getInt() == MAGIC && buffer.getInt() == states && buffer.getInt() == NUM_ACTIONS
+                    && buffer.getInt() == savedRows && (slots == null ? savedRows == -1 : savedRows >= 0 && savedRows <= states)
+                    && channel.size() == snapshotBytes(savedRows);
+            if(!matches){
+                System.err.println("Ignoring Q-Table snapshot " + file + " saved for a different table or format.");
+                return false;
+            }
+            buffer.asFloatBuffer().get(values);
+            buffer.position(HEADER_BYTES + values.length * Float.BYTES);
+            buffer.asIntBuffer().get(visits);
+            buffer.position(HEADER_BYTES + values.length * (Float.BYTES + Integer.BYTES));
+            for(int row = 0; row < savedRows; row++){
+                restore(buffer.getLong(), row);
+            }
+            return true;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    /**
+     * @param channel: the open snapshot.
+     * @return the whole contents of the channel, in a heap buffer positioned at the start.
+     */
+    private static ByteBuffer read(FileChannel channel) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate((int) channel.size());
+        while(buffer.hasRemaining() && channel.read(buffer) != -1);
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * Gives a saved state code back its row when a hashed table is loaded.
+     * @param code: the state code.
+     * @param row: the row it was saved in.
+     */
+    private synchronized void restore(long code, int row){
+        int mask = slots.length() - 1, slot = hash(code) & mask;
+        while(slots.get(slot) != EMPTY){
+            slot = (slot + 1) & mask;
+        }
+        rowCodes[row] = code;
+        setLegalActions(row, legalMask.applyAsInt(code));
+        slotRows[slot] = row;
+        rowsUsed = Math.max(rowsUsed, row + 1);
+        slots.set(slot, code);
+    }
+
+    /**
+     * Saves the table's current values, blocking until they are safely on disk.
+     * @param file: the snapshot being written.
+     */
+    public void save(Path file){
+        write(file, snapshot());
+    }
+
+    /**
+     * Takes a copy of the table straight away and writes it to disk on a background thread, so
+     * learning can carry on while the checkpoint is saved.  Should be called while no learner is
+     * updating the table, so the copy is consistent.
+     * @param file: the snapshot being written.
+     */
+    public void checkpoint(Path file){
+        ByteBuffer snapshot = snapshot();
+        getCheckpointWriter().submit(() -> write(file, snapshot));
+    }
+
+    /**
+     * Copies the table into the snapshot format: a header of {magic, rows, actions, rows used},
+     * every Q-Value, the visit count of every pair (so count-based learning rates carry on from
+     * where they were rather than overwriting loaded values at 1/1), then the state code of each used row of a hashed table (-1 rows used and no
+     * codes for a dense table).
+     * @return the snapshot, ready to be written.
+     */
+    private ByteBuffer snapshot(){
+        int savedRows = slots == null ? -1 : rowsUsed;
+        ByteBuffer buffer = ByteBuffer.allocate((int) snapshotBytes(savedRows));
+        buffer.putInt(MAGIC).putInt(states).putInt(NUM_ACTIONS).putInt(savedRows);
+        buffer.asFloatBuffer().put(values);
+        buffer.position(HEADER_BYTES + values.length * Float.BYTES);
+        buffer.asIntBuffer().put(visits);
+        buffer.position(HEADER_BYTES + values.length * (Float.BYTES + Integer.BYTES));
+        for(int row = 0; row < savedRows; row++){
+            buffer.putLong(rowCodes[row]);
+        }
+        buffer.rewind();
+        return buffer;
+    }
+
+    private long snapshotBytes(int savedRows){
+        return HEADER_BYTES + (long) values.length * (Float.BYTES + Integer.BYTES) + (long) Math.max(savedRows, 0) * Long.BYTES;
+    }
+
+    private static synchronized ExecutorService getCheckpointWriter(){
+        if(checkpointWriter == null){
+            checkpointWriter = Executors.newSingleThreadExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "QTable-Checkpoint");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return checkpointWriter;
+    }
+
+    /**
+     * Writes a snapshot to a temporary file next to the target and then renames it over the
+     * target, so a crash mid-write never leaves a truncated snapshot behind.
+     * @param file: the snapshot being written.
+     * @param buffer: the snapshot's contents.
+     */
+    private static synchronized void write(Path file, ByteBuffer buffer){
+        Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                while(buffer.hasRemaining()){
+                    channel.write(buffer);
+                }
+                channel.force(true);
+            }
+            try {
+                Files.move(temporary, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
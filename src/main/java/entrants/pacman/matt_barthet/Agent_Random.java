@@ -0,0 +1,75 @@
+package entrants.pacman.matt_barthet;
+
+import java.util.SplittableRandom;
+
+public class Agent_Random {
+
+    /**
+     * Root generator which every thread's stream is split from.  The seed can be fixed with
+     * the "agent.seed" system property or through setSeed to make experiments reproducible.
+     * The agents search until a deadline, so a seeded run only repeats exactly when each tick
+     * gets through the same amount of search.  Parallel evaluation and learning are turned off
+     * while seeded, as the order in which worker threads interleave differs from run to run, and
+     * the GA's background planning mode, which hands plans over by timing, should be left off.
+     */
+    private static SplittableRandom root = new SplittableRandom(Long.getLong("agent.seed", System.nanoTime()));
+    private static volatile boolean seeded = System.getProperty("agent.seed") != null;
+    private static volatile int epoch = 0;
+    private static final ThreadLocal<Stream> streams = ThreadLocal.withInitial(Stream::new);
+
+    /**
+     * Restarts every thread's random stream from the given seed.  Threads split their new stream
+     * the next time they draw a number, so runs are reproducible as long as threads first draw
+     * in the same order (always the case for a single-threaded agent).
+     * @param seed: the seed used for the root generator.
+     */
+    public static synchronized void setSeed(long seed){
+        root = new SplittableRandom(seed);
+        seeded = true;
+        epoch++;
+    }
+
+    /**
+     * @return true if the seed was fixed, in which case the agents search on a single thread.
+     */
+    public static boolean isSeeded(){
+        return seeded;
+    }
+
+    /**
+     * Returns the calling thread's own generator, so draws never contend with other threads
+     * and no generator has to be created per draw.
+     * @return the random stream belonging to the current thread.
+     */
+    public static SplittableRandom current(){
+        Stream stream = streams.get();
+        if(stream.epoch != epoch){
+            stream.reset();
+        }
+        return stream.random;
+    }
+
+    /**
+     * Splits a new independent stream off the root generator.
+     * @return a generator statistically independent of all the others.
+     */
+    private static synchronized SplittableRandom split(){
+        return root.split();
+    }
+
+    /**
+     * Internal class holding a thread's generator along with the seed epoch it was split in.
+     */
+    private static class Stream {
+
+        SplittableRandom random;
+        int epoch;
+
+        Stream(){ reset(); }
+
+        void reset(){
+            epoch = Agent_Random.epoch;
+            random = split();
+        }
+    }
+}
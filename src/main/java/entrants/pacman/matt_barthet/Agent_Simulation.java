@@ -0,0 +1,60 @@
+package entrants.pacman.matt_barthet;
+
+import pacman.game.Constants.DM;
+import pacman.game.Constants.GHOST;
+import pacman.game.Constants.MOVE;
+
+import java.util.EnumMap;
+
+/**
+ * The part of the game's interface the planners use while simulating, so that rollouts can run
+ * either on a full copy of the game or on the agents' compact forward model.
+ */
+public interface Agent_Simulation {
+
+    int getPacmanCurrentNodeIndex();
+
+    MOVE getPacmanLastMoveMade();
+
+    int getGhostCurrentNodeIndex(GHOST ghost);
+
+    MOVE getGhostLastMoveMade(GHOST ghost);
+
+    int getGhostEdibleTime(GHOST ghost);
+
+    boolean isGhostEdible(GHOST ghost);
+
+    boolean isJunction(int nodeIndex);
+
+    int getNeighbour(int nodeIndex, MOVE move);
+
+    int getNumberOfNodes();
+
+    int[] getPowerPillIndices();
+
+    boolean hasPill(int nodeIndex);
+
+    boolean hasPowerPill(int nodeIndex);
+
+    int getShortestPathDistance(int fromNodeIndex, int toNodeIndex);
+
+    MOVE getNextMoveTowardsTarget(int fromNodeIndex, int toNodeIndex, DM distanceMeasure);
+
+    MOVE getNextMoveTowardsTarget(int fromNodeIndex, int toNodeIndex, MOVE lastMoveMade, DM distanceMeasure);
+
+    MOVE getApproximateNextMoveAwayFromTarget(int fromNodeIndex, int toNodeIndex, MOVE lastMoveMade, DM distanceMeasure);
+
+    void advanceGame(MOVE pacManMove, EnumMap<GHOST, MOVE> ghostMoves);
+
+    boolean wasPacManEaten();
+
+    boolean wasPillEaten();
+
+    boolean wasPowerPillEaten();
+
+    boolean wasGhostEaten(GHOST ghost);
+
+    int getGhostCurrentEdibleScore();
+
+    int getScore();
+}
@@ -0,0 +1,217 @@
+package entrants.pacman.matt_barthet;
+
+import pacman.game.Constants;
+import pacman.game.Constants.MOVE;
+
+/**
+ * Turns what Ms. Pacman can see of a game into the code of a learning state, with the features
+ * packed into the bits of a long.  The actions of the learners are the moves in ACTIONS order.
+ */
+public interface Agent_StateEncoder {
+
+    MOVE[] ACTIONS = new MOVE[]{MOVE.UP, MOVE.LEFT, MOVE.DOWN, MOVE.RIGHT};
+
+    /**
+     * @param game: the game being observed.
+     * @param location: Ms. Pacman's location in the maze.
+     * @return the code of the state, never negative.
+     */
+    long encode(Agent_Simulation game, int location);
+
+    /**
+     * @param code: the code of a state.
+     * @return bit i is set if action i doesn't move Ms. Pacman into a barrier.
+     */
+    int legalActions(long code);
+
+    /**
+     * @return the number of distinct codes the encoder can produce.
+     */
+    long stateCount();
+
+    /**
+     * Converts a state code into a readable description for debugging purposes.
+     * @param code: the code of a state.
+     * @return string containing the state's description.
+     */
+    String describe(long code);
+
+    /**
+     * Converts a MOVE variable to integer based on the state representation used.
+     * In this case {N/W/S/E} = {0/1/2/3}
+     * @param move: move that should be converted to an integer.
+     * @return integer value corresponding to that move.
+     */
+    static int moveToInteger(MOVE move){
+        if(move == MOVE.UP)
+            return 0;
+        if(move == MOVE.LEFT)
+            return 1;
+        if(move == MOVE.DOWN)
+            return 2;
+        if(move == MOVE.RIGHT)
+            return 3;
+        return 0;
+    }
+
+    /**
+     * @class Basic: the original Q-Learning state.
+     * State format: {Direction}-{Wall North/West/South/East}-{Threat North/West/South/East}-{Edible Ghost}
+     * packed as bits [10-11]-[6-9]-[2-5]-[0-1], with directions numbered as in moveToInteger.
+     */
+    class Basic implements Agent_StateEncoder {
+
+        private final static String[] DIRECTIONS = new String[]{"UP", "LEFT", "DOWN", "RIGHT"};
+
+        public long encode(Agent_Simulation game, int location){
+
+            int walls = 0, threats = 0, edible = 0;
+
+            for(int i = 0; i < ACTIONS.length; i++){
+                if(game.getNeighbour(location, ACTIONS[i]) == -1){
+                    walls |= 1 << i;
+                }
+            }
+
+            //Loop through every ghost, if the ghost is visible identify the direction and adjust the state.
+            for(Constants.GHOST ghost: Constants.GHOST.values()){
+                int ghostLocation = game.getGhostCurrentNodeIndex(ghost);
+                if(ghostLocation != -1) {
+                    int direction = moveToInteger(game.getNextMoveTowardsTarget(location, ghostLocation, Constants.DM.PATH));
+                    if(game.getGhostEdibleTime(ghost) > 0) {
+                        edible = direction;
+                    } else {
+                        threats |= 1 << direction;
+                    }
+                }
+            }
+
+            return (((moveToInteger(game.getPacmanLastMoveMade()) << 4 | walls) << 4 | threats) << 2) | edible;
+        }
+
+        public int legalActions(long code){ return ~(int) (code >> 6) & 0xF; }
+
+        public long stateCount(){ return 1 << 12; }
+
+        public String describe(long code){
+            String output = "Direction: " + DIRECTIONS[(int) (code >> 10) & 3] + "\t";
+            output += "Edible Ghost: " + DIRECTIONS[(int) code & 3] + "\n";
+            for(int i = 0; i < ACTIONS.length; i++){
+                output += "Wall " + DIRECTIONS[i] + ": " + (((code >> (6 + i)) & 1) == 1 ? "Yes." : "No.") + "\t";
+            }
+            output += "\n";
+            for(int i = 0; i < ACTIONS.length; i++){
+                output += "Ghost " + DIRECTIONS[i] + ": " + (((code >> (2 + i)) & 1) == 1 ? "Yes." : "No.") + "\t";
+            }
+            return output + "\n";
+        }
+    }
+
+    /**
+     * @class Extended: the basic state plus the direction of the nearest pill, how far away the
+     * nearest hostile ghost is and how close the nearest power pill is, packed above the basic
+     * state's bits as [17-18] power pill bucket, [15-16] ghost distance bucket and [12-14] nearest
+     * pill direction (4 when no pill is in range).
+     */
+    class Extended implements Agent_StateEncoder {
+
+        private final static int[] GHOST_BUCKETS = new int[]{8, 16, 32};
+        private final static int[] POWER_PILL_BUCKETS = new int[]{10, 25, 50};
+        private final static String[] BUCKETS = new String[]{"Very Close", "Close", "Medium", "Far"};
+        private final Basic basic = new Basic();
+        private final ThreadLocal<PillSearch> searches = ThreadLocal.withInitial(PillSearch::new);
+
+        public long encode(Agent_Simulation game, int location){
+            long code = basic.encode(game, location);
+
+            int nearestGhost = Integer.MAX_VALUE;
+            for(Constants.GHOST ghost : Constants.GHOST.values()){
+                int ghostLocation = game.getGhostCurrentNodeIndex(ghost);
+                if(ghostLocation != -1 && game.getGhostEdibleTime(ghost) <= 0)
+                    nearestGhost = Math.min(nearestGhost, game.getShortestPathDistance(location, ghostLocation));
+            }
+
+            int nearestPowerPill = Integer.MAX_VALUE;
+            for(int node : game.getPowerPillIndices()){
+                if(game.hasPowerPill(node))
+                    nearestPowerPill = Math.min(nearestPowerPill, game.getShortestPathDistance(location, node));
+            }
+
+            int pillDirection = searches.get().nearestPill(game, location);
+            return code | (long) pillDirection << 12 | (long) bucket(nearestGhost, GHOST_BUCKETS) << 15 | (long) bucket(nearestPowerPill, POWER_PILL_BUCKETS) << 17;
+        }
+
+        private static int bucket(int distance, int[] limits){
+            for(int i = 0; i < limits.length; i++){
+                if(distance < limits[i]) return i;
+            }
+            return limits.length;
+        }
+
+        public int legalActions(long code){ return basic.legalActions(code); }
+
+        public long stateCount(){ return 1 << 19; }
+
+        public String describe(long code){
+            int pill = (int) (code >> 12) & 7;
+            return basic.describe(code & 0xFFF)
+                    + "Nearest Pill: " + (pill < 4 ? Basic.DIRECTIONS[pill] : "NONE") + "\t"
+                    + "Nearest Ghost: " + BUCKETS[(int) (code >> 15) & 3] + "\t"
+                    + "Nearest Power Pill: " + BUCKETS[(int) (code >> 17) & 3] + "\n";
+        }
+    }
+
+    /**
+     * @class PillSearch: one thread's breadth-first search buffers, reused for every search for
+     * the nearest pill.
+     */
+    class PillSearch {
+
+        private final static int PILL_SEARCH_DEPTH = 40;
+        private int[] queue = new int[0], firstAction = new int[0], visited = new int[0];
+        private int stamp = 0;
+
+        /**
+         * Searches outwards from Ms. Pacman for the closest node still holding a pill.
+         * @param game: the game being observed.
+         * @param location: Ms. Pacman's location in the maze.
+         * @return the action leading towards the nearest pill within range, or 4 if there is none.
+         */
+        public int nearestPill(Agent_Simulation game, int location){
+            int nodes = game.getNumberOfNodes();
+            if(visited.length < nodes){
+                queue = new int[nodes];
+                firstAction = new int[nodes];
+                visited = new int[nodes];
+                stamp = 0;
+            }
+            stamp++;
+            visited[location] = stamp;
+            int head = 0, tail = 0;
+            for(int action = 0; action < ACTIONS.length; action++){
+                int next = game.getNeighbour(location, ACTIONS[action]);
+                if(next != -1 && visited[next] != stamp){
+                    visited[next] = stamp;
+                    queue[tail] = next;
+                    firstAction[tail++] = action;
+                }
+            }
+            for(int depth = 0; depth < PILL_SEARCH_DEPTH && head < tail; depth++){
+                for(int end = tail; head < end; head++){
+                    int node = queue[head];
+                    if(game.hasPill(node))
+                        return firstAction[head];
+                    for(MOVE move : ACTIONS){
+                        int next = game.getNeighbour(node, move);
+                        if(next != -1 && visited[next] != stamp){
+                            visited[next] = stamp;
+                            queue[tail] = next;
+                            firstAction[tail++] = firstAction[head];
+                        }
+                    }
+                }
+            }
+            return ACTIONS.length;
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package entrants.pacman.matt_barthet;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class Agent_Telemetry {
+
+    /**
+     * Capacity of each sink's ring buffer and the largest batch written to disk at once.
+     */
+    private final static int BUFFER_CAPACITY = 8192;
+    private final static int BATCH_SIZE = 512;
+    private final static HashMap<String, Agent_Telemetry> sinks = new HashMap<>();
+
+    private final ArrayBlockingQueue<String> buffer = new ArrayBlockingQueue<>(BUFFER_CAPACITY);
+    private final AtomicLong dropped = new AtomicLong();
+    private final String fileName;
+    private final Thread drainer;
+    private volatile boolean closed = false;
+
+    /**
+     * Returns the sink appending to the given file, creating it along with its writer thread the
+     * first time the file is requested.  Every agent writing to the same file shares one sink.
+     * @param fileName: the file the telemetry is appended to.
+     * @return the sink for that file.
+     */
+    public static synchronized Agent_Telemetry open(String fileName){
+        Agent_Telemetry sink = sinks.get(fileName);
+        if(sink == null){
+            sink = new Agent_Telemetry(fileName);
+            sinks.put(fileName, sink);
+        }
+        return sink;
+    }
+
+    private Agent_Telemetry(String fileName){
+        this.fileName = fileName;
+        drainer = new Thread(this::drain, "Telemetry-" + fileName);
+        drainer.setDaemon(true);
+        drainer.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(this::close));
+    }
+
+    /**
+     * Queues text to be appended to the file without ever blocking the caller on the disk.
+     * If the writer has fallen a whole buffer behind, the text is dropped and counted instead.
+     * @param text: the text to be written, including any line breaks.
+     */
+    public void write(String text){
+        if(!buffer.offer(text)){
+            dropped.incrementAndGet();
+        }
+    }
+
+    /**
+     * Body of the writer thread: waits for telemetry, writes it to a single long-lived buffered
+     * writer in batches and flushes whenever it has caught up with the agents.  Once the sink is
+     * closed, whatever is left in the buffer is written out before the file is closed.
+     */
+    private void drain(){
+        ArrayList<String> batch = new ArrayList<>(BATCH_SIZE);
+        try (Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(fileName, true), StandardCharsets.UTF_8), 1 << 16)) {
+            try {
+                while (!closed) {
+                    batch.add(buffer.take());
+                    buffer.drainTo(batch, BATCH_SIZE - 1);
+                    for (String text : batch) {
+                        writer.write(text);
+                    }
+                    batch.clear();
+                    if (buffer.isEmpty()) {
+                        writer.flush();
+                    }
+                }
+            } catch (InterruptedException ignored) {
+                //Interrupted by close, fall through and write out the rest of the buffer
+            }
+            buffer.drainTo(batch);
+            for (String text : batch) {
+                writer.write(text);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Stops the writer thread and waits for it to write out anything still buffered.  Registered
+     * as a shutdown hook so nothing queued by the agents is lost when the JVM exits.
+     */
+    private void close(){
+        closed = true;
+        drainer.interrupt();
+        try {
+            drainer.join(1000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (dropped.get() > 0) {
+            System.err.println("Telemetry for " + fileName + " dropped " + dropped.get() + " entries.");
+        }
+    }
+}
@@ -20,6 +20,14 @@ public class Agent_Utility {
     public static int[] ghostEdibleTime;
     public static GhostPredictionsFast predictions;
     public final static Constants.MOVE[] POSSIBLE_MOVES = new Constants.MOVE[]{Constants.MOVE.LEFT, Constants.MOVE.RIGHT, Constants.MOVE.UP, Constants.MOVE.DOWN};
+    private final static ThreadLocal<Agent_ForwardModel> forwardModels = ThreadLocal.withInitial(Agent_ForwardModel::new);
+    private static volatile Agent_ForwardModel compactTemplate;
+    private static Agent_Visibility visibility;
+    private static int[] visibleBuffer;
+    private static int lastPacmanNode = -1, lastLevel = -1, lastTime = -1;
+    private final static ThreadLocal<int[]> sampledNodes = ThreadLocal.withInitial(() -> new int[Constants.GHOST.values().length]);
+    private final static ThreadLocal<Constants.MOVE[]> sampledMoves = ThreadLocal.withInitial(() -> new Constants.MOVE[Constants.GHOST.values().length]);
+    private final static ThreadLocal<EnumMap<Constants.GHOST, Constants.MOVE>> ghostMoveBuffers = ThreadLocal.withInitial(() -> new EnumMap<>(Constants.GHOST.class));
 
     /**
      * Function to check the conditions of the game and update Ms. Pacman's knowledge
@@ -39,11 +47,13 @@ public class Agent_Utility {
                 Agent_Utility.pillModel.observe(index, true);
             }
             Arrays.fill(ghostEdibleTime, -1);
+            visibility = null;
         }
         if (game.wasPacManEaten()) {
             System.out.println("Ms. Pacman was eaten. Lives remaining: " + game.getPacmanNumberOfLivesRemaining());
             predictions = new GhostPredictionsFast(game.getCurrentMaze());
             predictions.preallocate();
+            lastPacmanNode = -1;
         }
         updatePills(game);
     }
@@ -72,32 +82,32 @@ public class Agent_Utility {
     }
 
     /**
-     * Update the pill model with new observations made by Ms. Pacman in this game tick.
+     * Update the pill model with new observations made by Ms. Pacman in this game tick.  Only the
+     * nodes which came into view since the last tick are looked at; every pill is checked again
+     * when a game, maze or level starts, or after she is eaten and put back at the start.
      * @param game: game being played.
      */
     public static void updatePills(Game game){
-        int[] pills = game.getPillIndices();
-        int[] powerPills = game.getPowerPillIndices();
-
-        for (int pill : pills) {
-            int pillIndex = game.getPillIndex(pill);
-            if(pillIndex != -1){
-                Boolean pillStillAvailable = game.isPillStillAvailable(pillIndex);
-                if (pillStillAvailable != null && pillStillAvailable)
-                    pillModel.observe(pillIndex, true);
+        int current = game.getPacmanCurrentNodeIndex();
+        //A new game on the same maze and level is spotted by time going backwards
+        if(visibility == null || lastPacmanNode == -1 || lastLevel != game.getCurrentLevel() || lastTime > game.getTotalTime()){
+            visibility = Agent_Visibility.get(game.getCurrentMaze());
+            visibleBuffer = new int[visibility.getLongestSight()];
+            lastLevel = game.getCurrentLevel();
+            for (int pill : game.getPillIndices()) {
+                observePill(game, pill);
             }
-        }
-        for (int pill : powerPills) {
-            int pillIndex = game.getPillIndex(pill);
-            if(pillIndex!=-1){
-                Boolean pillStillAvailable = game.isPillStillAvailable(pillIndex);
-                if (pillStillAvailable != null && pillStillAvailable)
-                    pillModel.observe(pillIndex, true);
+        } else if(current != lastPacmanNode) {
+            int count = visibility.newlyVisible(lastPacmanNode, current, visibleBuffer);
+            for (int i = 0; i < count; i++) {
+                observePill(game, visibleBuffer[i]);
             }
         }
+        lastPacmanNode = current;
+        lastTime = game.getTotalTime();
 
         // Update the pill model with what isn't available anymore
-        int pillIndex = game.getPillIndex(game.getPacmanCurrentNodeIndex());
+        int pillIndex = game.getPillIndex(current);
         if (pillIndex != -1) {
             Boolean pillState = game.isPillStillAvailable(pillIndex);
             if (pillState != null && !pillState) {
@@ -106,6 +116,20 @@ public class Agent_Utility {
         }
     }
 
+    /**
+     * Records a pill seen at a node, if the node holds one which is visible and still there.
+     * @param game: game being played.
+     * @param node: the node being looked at.
+     */
+    private static void observePill(Game game, int node){
+        int pillIndex = game.getPillIndex(node);
+        if(pillIndex != -1){
+            Boolean pillStillAvailable = game.isPillStillAvailable(pillIndex);
+            if (pillStillAvailable != null && pillStillAvailable)
+                pillModel.observe(pillIndex, true);
+        }
+    }
+
     /**
      * Take the current game being played and extract all of Ms. Pacman's knowledge of her
      * surroundings.
@@ -113,51 +137,127 @@ public class Agent_Utility {
      * @return copy of the game capable of being simulated.
      */
     public static Game getGameSimulation(Game game, GhostPredictionsFast predictions, int [] ghostEdibleTime) {
+        return getGameSimulation(game, predictions, pillModel, ghostEdibleTime);
+    }
+
+    /**
+     * Take a game and extract Ms. Pacman's knowledge of her surroundings from the given models,
+     * rather than the ones shared by the agent, so that snapshots can be simulated on other threads.
+     * @param game: the state of the game being simulated.
+     * @param predictions: the ghost location model used to place the ghosts.
+     * @param pillModel: the pill model used to place the pills.
+     * @param ghostEdibleTime: the estimated edible time of each ghost.
+     * @return copy of the game capable of being simulated.
+     */
+    public static Game getGameSimulation(Game game, GhostPredictionsFast predictions, PillModel pillModel, int [] ghostEdibleTime) {
         GameInfo info = game.getPopulatedGameInfo();
         info.setPacman(new PacMan(game.getPacmanCurrentNodeIndex(), game.getPacmanLastMoveMade(), 0, false));
-        EnumMap<Constants.GHOST, GhostLocation> locations = predictions.sampleLocations();
+        int[] nodes = sampledNodes.get();
+        Constants.MOVE[] lastMoves = sampledMoves.get();
+        predictions.getSampler().sampleInto(nodes, lastMoves, Agent_Random.current());
         info.fixGhosts(ghost -> {
-            GhostLocation location = locations.get(ghost);
-            if (location != null) {
+            if (nodes[ghost.ordinal()] != -1) {
                 int edibleTime = ghostEdibleTime[ghost.ordinal()];
-                return new Ghost(ghost, location.getIndex(), edibleTime, 0, location.getLastMoveMade());
+                return new Ghost(ghost, nodes[ghost.ordinal()], edibleTime, 0, lastMoves[ghost.ordinal()]);
             } else {
                 return new Ghost(ghost, game.getGhostInitialNodeIndex(), 0, 0, Constants.MOVE.NEUTRAL);
             }
         });
-        for (int i = 0; i < pillModel.getPills().length(); i++) {
-            info.setPillAtIndex(i, pillModel.getPills().get(i));
-        }
+        //Every rollout this tick shares one snapshot of the pill model, copied into the info word by word
+        pillModel.getSnapshot().copyInto(info.getPills());
         return game.getGameFromInfo(info);
     }
 
+    /**
+     * Determinise Ms. Pacman's knowledge of her surroundings into the calling thread's compact
+     * forward model rather than a full copy of the game.  The model is reused by every call on
+     * the same thread, so a simulation must be finished with before the next one is requested.
+     * Everything but the ghosts is read from the game once per tick into a shared template, which
+     * each rollout copies before sampling its own ghosts.
+     * @param game: the state of the game being simulated.
+     * @param predictions: the ghost location model used to place the ghosts.
+     * @param pillModel: the pill model used to place the pills.
+     * @param ghostEdibleTime: the estimated edible time of each ghost.
+     * @return the thread's forward model, reset to a sampled state of the game.
+     */
+    public static Agent_ForwardModel getCompactSimulation(Game game, GhostPredictionsFast predictions, PillModel pillModel, int [] ghostEdibleTime) {
+        Agent_ForwardModel model = forwardModels.get();
+        model.resetFrom(getCompactTemplate(game, ghostEdibleTime, pillModel.getSnapshot()), predictions.getSampler());
+        return model;
+    }
+
+    /**
+     * Returns the template of the tick being simulated, building a new one the first time a tick
+     * (or different edible times or a different snapshot of the pills) is asked for.  Templates are never modified once they
+     * are published, so every thread can copy from one without locking.
+     * @param game: the state of the game being simulated.
+     * @param ghostEdibleTime: the estimated edible time of each ghost.
+     * @param pills: the snapshot of the pill model.
+     * @return the model holding the tick's state of the game, without any ghosts placed.
+     */
+    private static Agent_ForwardModel getCompactTemplate(Game game, int[] ghostEdibleTime, PillModel.Snapshot pills) {
+        Agent_ForwardModel template = compactTemplate;
+        if (template != null && template.isTemplateOf(game, ghostEdibleTime, pills))
+            return template;
+        synchronized (forwardModels) {
+            template = compactTemplate;
+            if (template == null || !template.isTemplateOf(game, ghostEdibleTime, pills)) {
+                template = new Agent_ForwardModel();
+                template.resetTemplate(game, ghostEdibleTime, pills);
+                compactTemplate = template;
+            }
+        }
+        return template;
+    }
+
     /**
      * Function to get basic predictions of the ghost team, sending them directly at Ms. Pacman.
      *
      * @param game: simulated copy of the current game.
      * @return moves for each individual ghost team member.
      */
-    public static EnumMap<Constants.GHOST, Constants.MOVE> getBasicGhostMoves(Game game) {
-        EnumMap<Constants.GHOST, Constants.MOVE> moves = new EnumMap<>(Constants.GHOST.class);
+    public static EnumMap<Constants.GHOST, Constants.MOVE> getBasicGhostMoves(Agent_Simulation game) {
+        return getBasicGhostMoves(game, new EnumMap<>(Constants.GHOST.class));
+    }
+
+    /**
+     * Sends the ghost team directly at Ms. Pacman as above, writing the moves into a buffer owned by
+     * the caller so a rollout can reuse one map for every tick.  At a junction the ghost first
+     * takes the maze's first move towards Ms. Pacman, a table lookup, and only falls back to a
+     * search excluding its reversal when that first move would turn it around.  Ghosts with no
+     * known location or move are left out, so the engine keeps them moving as they were.
+     * @param game: simulated copy of the current game.
+     * @param moves: buffer receiving the move of every ghost, overwritten on each call.
+     * @return the buffer.
+     */
+    public static EnumMap<Constants.GHOST, Constants.MOVE> getBasicGhostMoves(Agent_Simulation game, EnumMap<Constants.GHOST, Constants.MOVE> moves) {
         int pacmanLocation = game.getPacmanCurrentNodeIndex();
         for (Constants.GHOST ghost : Constants.GHOST.values()) {
             int index = game.getGhostCurrentNodeIndex(ghost);
             Constants.MOVE previousMove = game.getGhostLastMoveMade(ghost);
-            if (game.isJunction(index)) {
-                try {
-                    Constants.MOVE move = (game.isGhostEdible(ghost))
-                            ? game.getApproximateNextMoveAwayFromTarget(index, pacmanLocation, previousMove, Constants.DM.PATH)
-                            : game.getNextMoveTowardsTarget(index, pacmanLocation, previousMove, Constants.DM.PATH);
-                    moves.put(ghost, move);
-                } catch (NullPointerException ignored) {
-                }
-            } else {
+            if (index == -1 || previousMove == null) {
+                moves.remove(ghost);
+            } else if (!game.isJunction(index)) {
                 moves.put(ghost, previousMove);
+            } else if (game.isGhostEdible(ghost)) {
+                moves.put(ghost, game.getApproximateNextMoveAwayFromTarget(index, pacmanLocation, previousMove, Constants.DM.PATH));
+            } else {
+                Constants.MOVE move = game.getNextMoveTowardsTarget(index, pacmanLocation, Constants.DM.PATH);
+                if (move == previousMove.opposite())
+                    move = game.getNextMoveTowardsTarget(index, pacmanLocation, previousMove, Constants.DM.PATH);
+                moves.put(ghost, move);
             }
         }
         return moves;
     }
 
+    /**
+     * @return the calling thread's buffer for ghost moves, for rollouts to pass to getBasicGhostMoves.
+     */
+    public static EnumMap<Constants.GHOST, Constants.MOVE> getGhostMoveBuffer() {
+        return ghostMoveBuffers.get();
+    }
+
     /**
      * Normalise a value given it's expected maximum and minimum range (minimum assumed to be -1).
      * @param value: value to be normalised.
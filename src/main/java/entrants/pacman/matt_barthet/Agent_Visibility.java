@@ -0,0 +1,96 @@
+package entrants.pacman.matt_barthet;
+
+import pacman.game.Constants.MOVE;
+import pacman.game.internal.Maze;
+import pacman.game.internal.Node;
+
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+
+public class Agent_Visibility {
+
+    /**
+     * Line of sight table of a maze: for every node, the nodes Ms. Pacman can see from it, which
+     * are the node itself and the straight corridors leading off it in each direction up to the
+     * first wall.  Lists are stored back to back in one array, the list of node n starting at
+     * visibleStart[n], so that the nodes entering view as she moves can be found without looking
+     * at the rest of the maze.  Sight doesn't follow the tunnels, which wrap around the maze.
+     */
+    private final static IdentityHashMap<Maze, Agent_Visibility> tables = new IdentityHashMap<>();
+    private final static MOVE[] MOVES = new MOVE[]{MOVE.UP, MOVE.RIGHT, MOVE.DOWN, MOVE.LEFT};
+    private final int[] visibleStart, visibleNodes;
+    private final int[] seen;
+    private final int longestSight;
+    private int stamp = 0;
+
+    /**
+     * Returns the visibility table of the given maze, building it the first time the maze is seen.
+     * Tables keep scratch space for newlyVisible, so each one should only be used by one thread.
+     * @param maze: the maze being played.
+     * @return the maze's visibility table.
+     */
+    public static synchronized Agent_Visibility get(Maze maze){
+        Agent_Visibility table = tables.get(maze);
+        if(table == null){
+            table = new Agent_Visibility(maze);
+            tables.put(maze, table);
+        }
+        return table;
+    }
+
+    private Agent_Visibility(Maze maze){
+        Node[] graph = maze.graph;
+        visibleStart = new int[graph.length + 1];
+        int[] nodes = new int[graph.length * 8];
+        int count = 0, longest = 0;
+        for(int node = 0; node < graph.length; node++){
+            visibleStart[node] = count;
+            if(count + graph.length > nodes.length)
+                nodes = Arrays.copyOf(nodes, Math.max(nodes.length * 2, count + graph.length));
+            nodes[count++] = node;
+            for(MOVE move : MOVES){
+                Node current = graph[node];
+                for(int steps = 0; steps < graph.length; steps++){
+                    Integer next = current.neighbourhood.get(move);
+                    if(next == null || next == node || Math.abs(graph[next].x - current.x) + Math.abs(graph[next].y - current.y) > 1)
+                        break;
+                    nodes[count++] = next;
+                    current = graph[next];
+                }
+            }
+            longest = Math.max(longest, count - visibleStart[node]);
+        }
+        visibleStart[graph.length] = count;
+        visibleNodes = Arrays.copyOf(nodes, count);
+        seen = new int[graph.length];
+        longestSight = longest;
+    }
+
+    /**
+     * @return the most nodes visible from any one node, the buffer size newlyVisible needs.
+     */
+    public int getLongestSight(){ return longestSight; }
+
+    /**
+     * Finds the nodes which come into view when Ms. Pacman moves from one node to another.
+     * @param previous: the node she was on.
+     * @param current: the node she is on now.
+     * @param buffer: receives the newly visible nodes, at least getLongestSight() long.
+     * @return the number of nodes written to the buffer.
+     */
+    public int newlyVisible(int previous, int current, int[] buffer){
+        if(++stamp == 0){
+            Arrays.fill(seen, 0);
+            stamp = 1;
+        }
+        for(int i = visibleStart[previous]; i < visibleStart[previous + 1]; i++){
+            seen[visibleNodes[i]] = stamp;
+        }
+        int count = 0;
+        for(int i = visibleStart[current]; i < visibleStart[current + 1]; i++){
+            if(seen[visibleNodes[i]] != stamp)
+                buffer[count++] = visibleNodes[i];
+        }
+        return count;
+    }
+}
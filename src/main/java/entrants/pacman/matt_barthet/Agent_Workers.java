@@ -0,0 +1,60 @@
+package entrants.pacman.matt_barthet;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+
+public class Agent_Workers {
+
+    /**
+     * Number of worker threads kept alive for the agents' simulations, one per available core.
+     */
+    public final static int WORKER_COUNT = Runtime.getRuntime().availableProcessors();
+    private static ExecutorService pool;
+
+    /**
+     * Lazily creates the shared worker pool.  The threads are daemons so they never keep
+     * the JVM alive once the games have finished.
+     * @return the pool of worker threads shared by the agents.
+     */
+    public static synchronized ExecutorService getPool(){
+        if(pool == null){
+            pool = Executors.newFixedThreadPool(WORKER_COUNT, runnable -> {
+                Thread thread = new Thread(runnable, "Agent-Worker");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return pool;
+    }
+
+    /**
+     * Runs every task on the worker pool and blocks until all of them have completed.  Being
+     * interrupted doesn't cut the wait short, as workers still running would carry on writing
+     * into the caller's arrays after it had moved on; the tasks are left to finish (they are all
+     * bounded by a deadline or a fixed amount of work) and the interruption is then thrown, so
+     * the caller abandons whatever the tasks were computing.
+     * @param tasks: the tasks to be executed in parallel.
+     * @throws InterruptedException if the calling thread was interrupted while waiting.
+     */
+    public static void runAll(List<Callable<Void>> tasks) throws InterruptedException {
+        List<Future<Void>> futures = new ArrayList<>(tasks.size());
+        for (Callable<Void> task : tasks) {
+            futures.add(getPool().submit(task));
+        }
+        boolean interrupted = false;
+        for (Future<Void> future : futures) {
+            while (true) {
+                try {
+                    future.get();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                } catch (ExecutionException e) {
+                    throw new IllegalStateException("Simulation worker failed.", e.getCause());
+                }
+            }
+        }
+        if (interrupted) throw new InterruptedException("Interrupted while waiting for the simulation workers.");
+    }
+}
@@ -4,17 +4,18 @@ import pacman.controllers.*;
 import pacman.game.Constants;
 import pacman.game.Constants.MOVE;
 import pacman.game.Game;
+import pacman.game.internal.Maze;
 import prediction.GhostLocation;
+import prediction.PillModel;
+import prediction.fast.GhostPredictionsFast;
 
-import java.io.File;
-import java.io.FileWriter;
-import java.io.IOException;
 import java.util.*;
 import java.util.List;
+import java.util.concurrent.Callable;
 
 import static entrants.pacman.matt_barthet.Agent_Utility.*;
 
-public class MyPacMan_GA extends PacmanController {
+public class MyPacMan_GA extends PacmanController implements Agent_Instrumented.WorkCounter {
 
     /**
      * Initialising constants and variables required for the genetic algorithm.
@@ -23,38 +24,96 @@ public class MyPacMan_GA extends PacmanController {
     private final static int POPULATION_SIZE = 20;
     private final static int COMPUTATIONAL_BUDGET = 40;
     private final static int MUTATION_RATE = 50;
-    private static ArrayList<Gene> mPopulation;
-    private static ArrayList<Gene> elitePopulation;
-    private static Gene chosenIndividual;
+    private final static boolean PARALLEL_EVALUATION = Agent_Workers.WORKER_COUNT > 1;
+    private final static boolean WARM_START = true;
+    private final static int WARM_START_GENES = POPULATION_SIZE / 2;
+    private final static boolean BACKGROUND_PLANNING = false;
+    private final static int BACKGROUND_GENERATION_LIMIT = 5000;
+    private final static boolean MACRO_ROLLOUTS = false;
+    private final static boolean COMPACT_SIMULATION = true;
+    private final static Agent_OpponentModel OPPONENT_MODEL = new Agent_OpponentModel.Greedy();
+    private final static ThreadLocal<Agent_MacroGraph.Rollout> macroRollouts = ThreadLocal.withInitial(Agent_MacroGraph.Rollout::new);
+    //Evolved by whichever thread runs the GA: getMove, or the planner while background planning is on
+    private Population mPopulation, nextPopulation;
+    //The plan Ms. Pacman follows, only ever touched by getMove
+    private byte[] chosenChromosome;
+    private float chosenFitness;
+    private final int[] tournament = new int[3];
     private final static float alphaWeight = 1f, betaWeight = 0f;
-    private int moveCounter = 0, generationCount = 0;
-    private boolean moveCalculated = false;
+    private int moveCounter = 0, generationCount = 0, eliteIndex = 0, movesExecuted = 0;
+    private boolean moveCalculated = false, planAvailable = false;
     private Constants.GHOST edibleGhost;
-    private File file = new File("Genetic_Data_" + new Date().getTime() + ".txt");
-    private FileWriter fr;
+    //One file per run of the JVM, shared by every agent, as each sink keeps a writer thread and file open
+    private final static String TELEMETRY_FILE = "Genetic_Data_" + new Date().getTime() + ".txt";
+    private final Agent_Telemetry telemetry = Agent_Telemetry.open(TELEMETRY_FILE);
+    private Planner planner;
+    private static Planner runningPlanner;
+    private int lastTotalTime = -1;
+    private volatile long generationsEvolved = 0;
 
     /**
-     * Initialises the population lists for the genetic algorithm.
+     * Initialises the double-buffered populations for the genetic algorithm.
      */
     public MyPacMan_GA(){
-        mPopulation = new ArrayList<>();
-        elitePopulation = new ArrayList<>();
+        //A planner left running by an earlier agent would otherwise keep a core busy for good
+        retire(null);
+        mPopulation = new Population(POPULATION_SIZE);
+        nextPopulation = new Population(POPULATION_SIZE);
+        chosenChromosome = new byte[CHROMOSOME_SIZE];
         ghostEdibleTime = new int[Constants.GHOST.values().length];
 
-        try {
-            fr = new FileWriter(file, true);
-            fr.write("Ms. Pacman Rolling Horizon Agent Test Run.\n");
-            fr.write("Chromosome Size: " + CHROMOSOME_SIZE + "\n");
-            fr.write("Population Size: " + POPULATION_SIZE + "\n");
-            fr.write("Computational Budget: " + COMPUTATIONAL_BUDGET + "\n");
-            fr.write("Mutation Rate: " + MUTATION_RATE + "\n");
-            fr.write("\n");
-            fr.close();
-        } catch (IOException e) {
-            e.printStackTrace();
+        telemetry.write("Ms. Pacman Rolling Horizon Agent Test Run.\n");
+        telemetry.write("Chromosome Size: " + CHROMOSOME_SIZE + "\n");
+        telemetry.write("Population Size: " + POPULATION_SIZE + "\n");
+        telemetry.write("Computational Budget: " + COMPUTATIONAL_BUDGET + "\n");
+        telemetry.write("Mutation Rate: " + MUTATION_RATE + "\n");
+        telemetry.write("\n");
+    }
+
+    /**
+     * Stops the background planner, if one is running, and waits for it to finish its generation.
+     * Called when the game ends or a new one starts, and should be called by anyone running games
+     * outside of getMove's sight once they are done with the agent.  A later request starts a new
+     * planner.
+     */
+    public void close(){
+        if(planner == null) return;
+        retire(planner);
+        planner = null;
+    }
+
+    /**
+     * Interrupts a planner and joins it, forgetting it as the running planner.
+     * @param stopping: the planner to stop, or null to stop whichever planner is running.
+     */
+    private static synchronized void retire(Planner stopping){
+        Planner target = stopping == null ? runningPlanner : stopping;
+        if(target == null) return;
+        target.interrupt();
+        boolean interrupted = false;
+        while(target.isAlive()){
+            try {
+                target.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
         }
+        if(interrupted)
+            Thread.currentThread().interrupt();
+        if(runningPlanner == target)
+            runningPlanner = null;
     }
 
+    private static synchronized void register(Planner started){
+        runningPlanner = started;
+    }
+
+    public long workDone(){ return generationsEvolved; }
+
+    public String workUnit(){ return "generations"; }
+
+    public String workDetails(){ return OPPONENT_MODEL.describe(); }
+
     /**
      * Returns Ms. Pacman's chosen move for this game tick.
      * @param game: the current state of the game at this tick.
@@ -63,18 +122,32 @@ public class MyPacMan_GA extends PacmanController {
      */
     public MOVE getMove(Game game, long timeDue) {
 
-        if (game.gameOver()) return null;
+        if (game.gameOver()){
+            close();
+            return null;
+        }
+
+        //Time only runs backwards when a new game is started, so nothing planned for the last one applies
+        if(game.getTotalTime() < lastTotalTime){
+            close();
+            moveCounter = 0;
+            movesExecuted = 0;
+            moveCalculated = false;
+            planAvailable = false;
+        }
+        lastTotalTime = game.getTotalTime();
 
+        Maze previousMaze = currentMaze;
         updateObservations(game);
 
-        if(chosenIndividual != null){
+        if(planAvailable){
             //If the current micro action leads Ms.Pacman to a junction or barrier, skip to the next action
             if(game.isJunction(game.getPacmanCurrentNodeIndex())){
                 //System.out.println("Ms. Pacman has reached a junction. Incrementing Move Counter.");
                 moveCounter++;
             } else {
                 while(true){
-                    if(moveCounter < CHROMOSOME_SIZE && game.getNeighbour(game.getPacmanCurrentNodeIndex(), chosenIndividual.getChromosomeElement(moveCounter)) == -1) {
+                    if(moveCounter < CHROMOSOME_SIZE && game.getNeighbour(game.getPacmanCurrentNodeIndex(), getChosenMove(moveCounter)) == -1) {
                         //System.out.println("Ms. Pacman has collided with an obstacle. Incrementing Move Counter.");
                         moveCounter++;
                     } else {
@@ -82,9 +155,15 @@ public class MyPacMan_GA extends PacmanController {
                     }
                 }
             }
-            if(chosenIndividual.getFitness() == (alphaWeight * normalize(0, 500))){
+            if(chosenFitness == (alphaWeight * normalize(0, 500))){
                 //moveCounter = CHROMOSOME_SIZE;
             }
+            movesExecuted = moveCounter;
+        }
+
+        //A previous plan is no use as a starting point once Ms. Pacman has been moved to a new position
+        if(previousMaze != currentMaze || game.wasPacManEaten()){
+            movesExecuted = CHROMOSOME_SIZE;
         }
 
         for (Constants.GHOST ghost : Constants.GHOST.values()) {
@@ -96,8 +175,8 @@ public class MyPacMan_GA extends PacmanController {
                 predictions.observe(ghost, ghostIndex, game.getGhostLastMoveMade(ghost));
                 ghostEdibleTime[ghost.ordinal()] = game.getGhostEdibleTime(ghost);
                 if(moveCounter < CHROMOSOME_SIZE){
-                    Game simulation = getGameSimulation(game, predictions, ghostEdibleTime);
-                    if(evaluateIndividual(simulation, chosenIndividual, moveCounter + 1) == 0) {
+                    Agent_Simulation simulation = simulate(game, predictions, pillModel, ghostEdibleTime);
+                    if(evaluateIndividual(simulation, chosenChromosome, 0, moveCounter + 1) == 0) {
                         moveCounter = CHROMOSOME_SIZE;
                         //System.out.println("Ms. Pacman has observed a hostile ghost. Recalculating route!");
                     }
@@ -130,33 +209,100 @@ public class MyPacMan_GA extends PacmanController {
             generationCount = 0;
         }
 
-        if(moveCounter == 0 && !moveCalculated) {
+        if(moveCounter == 0 && !moveCalculated && BACKGROUND_PLANNING) {
 
-            //Clear out Ms. Pacman's previous population of genes
-            mPopulation.clear();
-            elitePopulation.clear();
+            //Hand the planner a snapshot to evolve against and follow the shifted old plan until it replies
+            requestPlan(game);
+            moveCalculated = true;
 
-            //Create and randomly initialise a new population of genes
-            for (int i = 0; i < POPULATION_SIZE; i++) {
-                Gene entry = new Gene();
-                entry.randomizeChromosome();
-                mPopulation.add(entry);
-            }
+        } else if(moveCounter == 0 && !moveCalculated) {
+
+            seedPopulation(planAvailable, movesExecuted);
+            movesExecuted = 0;
 
             //Compute the genetic algorithm and return the first move of the best fitted individual
-            try {
-                fr = new FileWriter(file, true);
-                geneticAlgorithm(game);
-                moveCalculated = true;
-                fr.append("\n");
-                fr.close();
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
+            geneticAlgorithm(game);
+            moveCalculated = true;
+            planAvailable = true;
+            telemetry.write("\n");
+        }
+
+        //Keep picking up the planner's improvements until Ms. Pacman commits past the plan's first move
+        if(BACKGROUND_PLANNING && moveCounter == 0) {
+            adoptLatestPlan();
         }
 
         predictions.update();
-        return chosenIndividual.getChromosomeElement(moveCounter);
+        if(!planAvailable) return game.getPacmanLastMoveMade();
+        return getChosenMove(moveCounter);
+    }
+
+    /**
+     * Seeds the population with the previous plans, shifted past the moves already executed,
+     * and fills the rest of Ms. Pacman's population with randomly initialised genes.
+     * @param warmStart: whether the current population holds plans worth carrying over.
+     * @param shift: number of moves of the previous plans which have already been executed.
+     */
+    private void seedPopulation(boolean warmStart, int shift){
+        int warmGenes = (WARM_START && warmStart) ? WARM_START_GENES : 0;
+        for (int i = 0; i < warmGenes; i++) {
+            mPopulation.shiftChromosome(i, shift);
+        }
+        for (int i = warmGenes; i < POPULATION_SIZE; i++) {
+            mPopulation.randomizeChromosome(i);
+        }
+    }
+
+    /**
+     * Publishes a snapshot of Ms. Pacman's current knowledge to the background planner, starting
+     * the planner thread the first time it is needed.
+     * @param game: the current state of the game at this tick.
+     */
+    private void requestPlan(Game game){
+        if(planner == null){
+            retire(null);
+            planner = new Planner();
+            register(planner);
+            planner.start();
+        }
+
+        //Until the planner replies, the old plan shifted past the executed moves is the best guess
+        if(planAvailable){
+            shiftPlan(chosenChromosome, 0, movesExecuted);
+        }
+        planner.submit(new Snapshot(game.copy(), predictions.copy(), pillModel.copy(), ghostEdibleTime.clone(), movesExecuted, planAvailable));
+        movesExecuted = 0;
+    }
+
+    /**
+     * Copies the planner's best plan for the latest snapshot into the plan Ms. Pacman follows.
+     * Plans are immutable once published, so this is the only way the planner's work reaches
+     * getMove.  Never blocks: if the planner hasn't finished a generation yet the current plan
+     * is kept.
+     */
+    private void adoptLatestPlan(){
+        Plan plan = planner.latestPlan;
+        if(plan != null && plan.source == planner.pending){
+            System.arraycopy(plan.chromosome, 0, chosenChromosome, 0, CHROMOSOME_SIZE);
+            chosenFitness = plan.fitness;
+            planAvailable = true;
+        }
+    }
+
+    /**
+     * Shifts a plan to the left, dropping the moves which have already been executed
+     * and padding the end with random moves.
+     * @param chromosomes: the array holding the plan being shifted.
+     * @param offset: position of the plan's first move in the array.
+     * @param shift: number of moves already executed from the plan.
+     */
+    private static void shiftPlan(byte[] chromosomes, int offset, int shift){
+        SplittableRandom random = Agent_Random.current();
+        shift = Math.min(shift, CHROMOSOME_SIZE);
+        System.arraycopy(chromosomes, offset + shift, chromosomes, offset, CHROMOSOME_SIZE - shift);
+        for(int i = offset + CHROMOSOME_SIZE - shift; i < offset + CHROMOSOME_SIZE; i++){
+            chromosomes[i] = (byte) random.nextInt(POSSIBLE_MOVES.length);
+        }
     }
 
     /**
@@ -165,14 +311,20 @@ public class MyPacMan_GA extends PacmanController {
      * population is chosen as Pac-man's best action.
      * @param game: current game being played.
      */
-    private void geneticAlgorithm(Game game) throws IOException {
+    private void geneticAlgorithm(Game game){
         long start = new Date().getTime();
-        fr.write("Generation Evolution for Next Move: \n");
-        fr.write("Generation\tAverage Fitness\t\tStandard Deviation\n");
-        while(new Date().getTime() < start + COMPUTATIONAL_BUDGET){
-            evaluateGeneration(game);
-            printEvaluation(generationCount++);
-            produceNextGeneration();
+        telemetry.write("Generation Evolution for Next Move: \n");
+        telemetry.write("Generation\tAverage Fitness\t\tStandard Deviation\n");
+        try {
+            while(new Date().getTime() < start + COMPUTATIONAL_BUDGET){
+                evaluateGeneration(game, predictions, pillModel, ghostEdibleTime);
+                printEvaluation(generationCount++);
+                rememberElite();
+                produceNextGeneration();
+            }
+        } catch (InterruptedException e) {
+            //Keep the elite of the last complete generation rather than selecting from a partial one
+            Thread.currentThread().interrupt();
         }
     }
 
@@ -180,47 +332,137 @@ public class MyPacMan_GA extends PacmanController {
      * For all members of the population, runs a heuristic that evaluates their fitness
      * based on their phenotype.
      * @param game: the current game being played.
+     * @param predictions: the ghost location model used to determinise the simulations.
+     * @param pills: the pill model used to determinise the simulations.
+     * @param edibleTimes: the estimated edible time of each ghost.
+     * @throws InterruptedException if interrupted while the workers were evaluating the genes.
      */
-    private void evaluateGeneration(Game game){
+    private void evaluateGeneration(Game game, GhostPredictionsFast predictions, PillModel pills, int[] edibleTimes) throws InterruptedException {
         float bestFit = Integer.MIN_VALUE, worstFit = Integer.MAX_VALUE, fitness;
-        int worstFitLocation = 0;
-        Gene mostFit = null;
+        int worstFitLocation = 0, mostFit = 0;
+
+        if(PARALLEL_EVALUATION && !Agent_Random.isSeeded()){
+            evaluateInParallel(game, predictions, pills, edibleTimes);
+        } else {
+            for(int geneID = 0; geneID < size(); geneID++){
+                mPopulation.fitness[geneID] = evaluateGene(game, predictions, pills, edibleTimes, geneID);
+            }
+        }
 
-        for(int geneID = 0; geneID < mPopulation.size(); geneID++){
-            Game simulation = getGameSimulation(game, predictions, ghostEdibleTime);
-            fitness = evaluateIndividual(simulation, mPopulation.get(geneID), 1);
-            mPopulation.get(geneID).setFitness(fitness);
+        //Merge the fitness values in population order so the elite choice doesn't depend on thread timing
+        for(int geneID = 0; geneID < size(); geneID++){
+            fitness = mPopulation.fitness[geneID];
             if(fitness >= bestFit){
-                mostFit = getGene(geneID);
+                mostFit = geneID;
                 bestFit = fitness;
             } else if (fitness <= worstFit){
                 worstFit = fitness;
                 worstFitLocation = geneID;
             }
         }
-        assert mostFit != null;
-        getGene(worstFitLocation).mChromosome = mostFit.mChromosome.clone();
-        elitePopulation.add(mostFit);
+        mPopulation.copyChromosome(mostFit, mPopulation, worstFitLocation);
+        eliteIndex = mostFit;
+        //Only one thread evaluates generations at a time, so the count needs no atomic update
+        generationsEvolved++;
+    }
+
+    /**
+     * Splits the population between the worker threads, each of which determinises its own copy
+     * of the game and stores the fitness of its genes directly in the population.
+     * @param game: the current game being played.
+     * @param predictions: the ghost location model used to determinise the simulations.
+     * @param pills: the pill model used to determinise the simulations.
+     * @param edibleTimes: the estimated edible time of each ghost.
+     * @throws InterruptedException if interrupted while the workers were evaluating the genes.
+     */
+    private void evaluateInParallel(Game game, GhostPredictionsFast predictions, PillModel pills, int[] edibleTimes) throws InterruptedException {
+        int workers = Math.min(Agent_Workers.WORKER_COUNT, size());
+        List<Callable<Void>> tasks = new ArrayList<>(workers);
+        for(int worker = 0; worker < workers; worker++){
+            final int firstGene = worker;
+            //The compact model only reads from the game, so workers can share it
+            final Game workerCopy = COMPACT_SIMULATION ? game : game.copy();
+            tasks.add(() -> {
+                for(int geneID = firstGene; geneID < size(); geneID += workers){
+                    mPopulation.fitness[geneID] = evaluateGene(workerCopy, predictions, pills, edibleTimes, geneID);
+                }
+                return null;
+            });
+        }
+        Agent_Workers.runAll(tasks);
+    }
+
+    /**
+     * Evaluate a gene of the population against a determinised simulation of the game, either
+     * stepping a full copy of the game or jumping corridor by corridor along the macro graph.
+     * @param game: the game being played.
+     * @param predictions: the ghost location model used to determinise the simulation.
+     * @param pills: the pill model used to determinise the simulation.
+     * @param edibleTimes: the estimated edible time of each ghost.
+     * @param geneID: index of the gene in the population.
+     * @return the fitness of the gene's chromosome
+     */
+    private float evaluateGene(Game game, GhostPredictionsFast predictions, PillModel pills, int[] edibleTimes, int geneID){
+        if(MACRO_ROLLOUTS){
+            Agent_MacroGraph.Rollout rollout = macroRollouts.get();
+            rollout.reset(game, predictions.getSampler(), edibleTimes, pills.getSnapshot());
+            return evaluateMacro(rollout, mPopulation.chromosomes, mPopulation.offset(geneID), 1);
+        }
+        Agent_Simulation simulation = simulate(game, predictions, pills, edibleTimes);
+        return evaluateIndividual(simulation, mPopulation.chromosomes, mPopulation.offset(geneID), 1);
     }
 
     /**
-     * Evaluate the chromosome of an individual using a simulated copy of the game.
-     * @param simulation: a copy of the game used for simulation.
-     * @param individual: the gene which the chromosome being evaluated belongs to.
+     * Determinises the game for a rollout, either into the thread's compact forward model or into
+     * a full copy of the game.
+     * @param game: the game being played.
+     * @param predictions: the ghost location model used to determinise the simulation.
+     * @param pills: the pill model used to determinise the simulation.
+     * @param edibleTimes: the estimated edible time of each ghost.
+     * @return a simulation of the game, ready to be advanced.
+     */
+    private Agent_Simulation simulate(Game game, GhostPredictionsFast predictions, PillModel pills, int[] edibleTimes){
+        if(COMPACT_SIMULATION)
+            return getCompactSimulation(game, predictions, pills, edibleTimes);
+        return new Agent_GameSimulation(getGameSimulation(game, predictions, pills, edibleTimes));
+    }
+
+    /**
+     * Evaluate the chromosome of an individual using the macro graph, applying each move for a
+     * whole corridor at once.
+     * @param rollout: the macro rollout, reset to the state being simulated.
+     * @param chromosomes: the array holding the chromosome being evaluated.
+     * @param offset: position of the chromosome's first move in the array.
+     * @return the fitness of the chromosome
+     */
+    private float evaluateMacro(Agent_MacroGraph.Rollout rollout, byte[] chromosomes, int offset, int startingPoint){
+        for(int moveID = startingPoint; moveID <= CHROMOSOME_SIZE; moveID++){
+            //Stop applying actions if Ms. Pacman was eaten, and assign a harsh fitness score
+            if(!rollout.advance(POSSIBLE_MOVES[chromosomes[offset + moveID - 1]]))
+                return 0;
+        }
+        return alphaWeight * normalize(rollout.getScore(), 500);
+    }
+
+    /**
+     * Evaluate the chromosome of an individual using a simulation of the game.
+     * @param simulation: a determinised simulation of the game.
+     * @param chromosomes: the array holding the chromosome being evaluated.
+     * @param offset: position of the chromosome's first move in the array.
      * @return the fitness of the chromosome
      */
-    private float evaluateIndividual(Game simulation, Gene individual, int startingPoint){
+    private float evaluateIndividual(Agent_Simulation simulation, byte[] chromosomes, int offset, int startingPoint){
         float scoreFitness = -simulation.getScore();
+        EnumMap<Constants.GHOST, MOVE> ghostMoves = getGhostMoveBuffer();
 
         for(int moveID = startingPoint; moveID <= CHROMOSOME_SIZE; moveID++){
 
-            MOVE nextMove = individual.getChromosomeElement(moveID-1);
+            MOVE nextMove = POSSIBLE_MOVES[chromosomes[offset + moveID - 1]];
 
             while(true){
 
                 //Advance another step in the simulation based on the next micro action and ghost actions
-                //simulation.advanceGame(nextMove, this.ghosts.getMove(simulation.copy(), 0));
-                simulation.advanceGame(nextMove, getBasicGhostMoves(simulation));
+                simulation.advanceGame(nextMove, OPPONENT_MODEL.getMoves(simulation, ghostMoves));
 
                 //Stop applying action if Ms. Pacman was eaten, and assign a harsh fitness score
                 if(simulation.wasPacManEaten())
@@ -244,104 +486,110 @@ public class MyPacMan_GA extends PacmanController {
     }
 
     /**
-     * Select three random genes from the population and insert them into the tournament.
-     * @return the gene with the best fitness of the three.
+     * Select three random genes from the population (excluding the elite) and insert them into the tournament.
+     * @return the index of the gene with the best fitness of the three.
      */
-    private Gene tournamentSelection(){
-
-        Gene[] competition = new Gene[3];
-        competition[0] = mPopulation.get(new Random().nextInt(size()));
-        competition[1] = mPopulation.get(new Random().nextInt(size()));
-        competition[2] = mPopulation.get(new Random().nextInt(size()));
+    private int tournamentSelection(){
+
+        int[] competition = tournament;
+        SplittableRandom random = Agent_Random.current();
+        for(int i = 0; i < competition.length; i++){
+            competition[i] = random.nextInt(size() - 1);
+            if(competition[i] >= eliteIndex)
+                competition[i]++;
+        }
+        float[] fitness = mPopulation.fitness;
 
-        if(competition[0].getFitness() >= competition[1].getFitness() && competition[0].getFitness() >= competition[2].getFitness()){
+        if(fitness[competition[0]] >= fitness[competition[1]] && fitness[competition[0]] >= fitness[competition[2]]){
             return competition[0];
-        } else if (competition[1].getFitness() >= competition[0].getFitness() && competition[1].getFitness() >= competition[2].getFitness()){
+        } else if (fitness[competition[1]] >= fitness[competition[0]] && fitness[competition[1]] >= fitness[competition[2]]){
             return competition[1];
         } else {
             return competition[2];
         }
     }
 
+    /**
+     * Remember the elite's plan as the current best sequence of moves for Ms. Pacman.
+     */
+    private void rememberElite(){
+        System.arraycopy(mPopulation.chromosomes, mPopulation.offset(eliteIndex), chosenChromosome, 0, CHROMOSOME_SIZE);
+        chosenFitness = mPopulation.fitness[eliteIndex];
+    }
+
     /**
      * With each gene's fitness as a guide, chooses which genes should mate and produce offspring.
-     * The offspring are added to the population, replacing the previous generation's Genes either
-     * partially or completely.
+     * The offspring are written into the back buffer population, which then replaces the previous
+     * generation's genes.
      */
     private void produceNextGeneration(){
 
-        //Next generation of the population stored here
-        ArrayList<Gene> newPopulation = new ArrayList<>();
-        chosenIndividual = elitePopulation.get(0);
-
-        //Add the elite population straight into the new population with no crossover or mutation
-        for(int i = 0; i < elitePopulation.size(); i++) {
-            newPopulation.add(elitePopulation.get(0));
-            mPopulation.remove(elitePopulation.get(0));
-            elitePopulation.remove(0);
-        }
+        //Add the elite straight into the new population with no crossover or mutation
+        mPopulation.copyChromosome(eliteIndex, nextPopulation, 0);
+        nextPopulation.fitness[0] = mPopulation.fitness[eliteIndex];
 
         //Take the rest of the population, pair them together and produce new genes - mutate new genes at specified rate
-        while(newPopulation.size() < POPULATION_SIZE){
+        for(int child = 1; child < POPULATION_SIZE; child += 2){
 
             //Select two genes from the population using tournament selection (size 3)
-            Gene parent1 = tournamentSelection();
-            Gene parent2 = tournamentSelection();
+            int parent1 = tournamentSelection();
+            int parent2 = tournamentSelection();
 
-            //Store the produced genes in an array for later use
-            Gene[] newPair = parent1.reproduce(parent2);
+            //Write the offspring straight into the next generation, dropping the second if the population is full
+            int sibling = child + 1 < POPULATION_SIZE ? child + 1 : -1;
+            mPopulation.reproduce(parent1, parent2, nextPopulation, child, sibling);
 
             //Roll a die and check whether to mutate new genes
-            newPair[0].mutate();
-            newPair[1].mutate();
-
-            //Add the newly generated and modified genes to the new generation pool
-            newPopulation.add(newPair[0]);
-            newPopulation.add(newPair[1]);
+            nextPopulation.mutate(child);
+            if(sibling != -1)
+                nextPopulation.mutate(sibling);
         }
 
-        //Set the population to the new generation of genes
-        mPopulation = (ArrayList)newPopulation.clone();
+        //Swap the buffers so the new generation becomes the population
+        Population previous = mPopulation;
+        mPopulation = nextPopulation;
+        nextPopulation = previous;
     }
 
     /**
      * @param generationCount : the current generation count of the population
      */
-    private void printEvaluation(int generationCount) throws IOException{
+    private void printEvaluation(int generationCount){
         float avgFitness=0.f, sd = 0;
-        for(int i = 0; i < mPopulation.size(); i++){
-            float currFitness = getGene(i).getFitness();
+        for(int i = 0; i < size(); i++){
+            float currFitness = mPopulation.fitness[i];
             avgFitness += currFitness;
         }
-        if(mPopulation.size() > 0)
-            avgFitness = avgFitness / mPopulation.size();
+        if(size() > 0)
+            avgFitness = avgFitness / size();
         for(int i = 0; i < size(); i++){
-            float currFitness = getGene(i).getFitness();
+            float currFitness = mPopulation.fitness[i];
             sd += (currFitness - avgFitness) * (currFitness - avgFitness) / size();
         }
         double standardDeviation = Math.sqrt(sd);
-        fr.write(generationCount + "\t\t\t" + avgFitness + "\t\t\t" + standardDeviation + "\n");
+        telemetry.write(generationCount + "\t\t\t" + avgFitness + "\t\t\t" + standardDeviation + "\n");
     }
 
     /**
-     * Returns the Gene at position <b>index</b> of the mPopulation arrayList
-     * @param index: the position in the population of the Gene we want to retrieve
-     * @return the Gene at position <b>index</b> of the mPopulation arrayList
+     * Returns the move at position <b>index</b> of the plan Ms. Pacman is currently following.
+     * @param index: the position in the chosen chromosome of the move we want to retrieve
+     * @return the move at position <b>index</b> of the chosen chromosome
      */
-    private Gene getGene(int index){ return mPopulation.get(index); }
+    private MOVE getChosenMove(int index){ return POSSIBLE_MOVES[chosenChromosome[index]]; }
 
     /**
      * @return the size of the population
      */
-    private int size(){ return mPopulation.size(); }
+    private int size(){ return mPopulation.size; }
 
     /**
-     * Converts the gene's genotype (integer array) into its phenotype (series of actions)
+     * Converts a gene's genotype (byte array) into its phenotype (series of actions)
      * @return string containing gene's phenotype
      */
-    private String getPhenotype(MOVE[] mChromosome) {
+    private String getPhenotype(byte[] chromosomes, int offset) {
         StringBuilder result= new StringBuilder();
-        for (MOVE move : mChromosome) {
+        for (int i = offset; i < offset + CHROMOSOME_SIZE; i++) {
+            MOVE move = POSSIBLE_MOVES[chromosomes[i]];
             if (move == MOVE.LEFT)
                 result.append("L");
             if (move == MOVE.RIGHT)
@@ -355,118 +603,207 @@ public class MyPacMan_GA extends PacmanController {
     }
 
     /**
-     * @class Gene: represents a series of actions for Pac-man to take (phenotype)
-     * through the use of an integer array of values between 0 and 3 (genotype).
+     * @class Snapshot: copy of everything Ms. Pacman knew about the game when a plan was requested,
+     * which the background planner can simulate without touching the agent's live models.
      */
-    public class Gene{
+    static class Snapshot{
+
+        final Game game;
+        final GhostPredictionsFast predictions;
+        final PillModel pills;
+        final int[] edibleTimes;
+        final int movesExecuted;
+        final boolean warmStart;
+
+        Snapshot(Game game, GhostPredictionsFast predictions, PillModel pills, int[] edibleTimes, int movesExecuted, boolean warmStart){
+            this.game = game;
+            this.predictions = predictions;
+            this.pills = pills;
+            this.edibleTimes = edibleTimes;
+            this.movesExecuted = movesExecuted;
+            this.warmStart = warmStart;
+        }
+    }
 
-        float mFitness;
-        MOVE[] mChromosome;
+    /**
+     * @class Plan: the best chromosome the planner has found so far for a snapshot.
+     */
+    static class Plan{
 
-        /**
-         * Allocates memory for the mChromosome array and initializes any other data, such as fitness
-         * We chose to use a constant variable as the chromosome size, but it can also be
-         * passed as a variable in the constructor
-         */
-        Gene() {
-            mChromosome = new MOVE[CHROMOSOME_SIZE];
-            mFitness = 0.f;
+        final Snapshot source;
+        final byte[] chromosome;
+        final float fitness;
+
+        Plan(Snapshot source, byte[] chromosome, float fitness){
+            this.source = source;
+            this.chromosome = chromosome;
+            this.fitness = fitness;
+        }
+    }
+
+    /**
+     * @class Planner: daemon thread which keeps evolving the population against the latest snapshot
+     * for as long as Ms. Pacman is travelling between ticks, publishing the elite after every
+     * generation.  The planner owns its agent's populations while background planning is enabled,
+     * and runs until the agent closes it by interrupting it.
+     */
+    private class Planner extends Thread{
+
+        volatile Snapshot pending;
+        volatile Plan latestPlan;
+
+        Planner(){
+            super("GA-Planner");
+            setDaemon(true);
         }
 
         /**
-         * Randomizes the numbers on the mChromosome array to values between 0 and 3
+         * Replaces the snapshot the planner is working on and wakes it up if it is idle.
+         * @param snapshot: the state Ms. Pacman is planning from.
          */
-        void randomizeChromosome(){
-            for(int i = 0; i < CHROMOSOME_SIZE; i++){
-                setChromosomeElement(i, POSSIBLE_MOVES[new Random().nextInt(POSSIBLE_MOVES.length)]);
-            }
+        synchronized void submit(Snapshot snapshot){
+            pending = snapshot;
+            notifyAll();
         }
 
         /**
-         * Creates 2 offspring by combining (using n-point crossover) the current
-         * Gene's chromosome with another Gene's chromosome.
-         * @param other: the other parent we want to create offpsring from
-         * @return Array of Gene offspring (default length of array is 2).
-         * These offspring will need to be added to the next generation.
+         * Waits until there is a snapshot the planner hasn't exhausted its generation limit on.
+         * @param current: the snapshot the planner was evolving against.
+         * @param generations: number of generations evolved against the current snapshot.
+         * @return the snapshot to evolve against next.
          */
-        Gene[] reproduce(Gene other){
-
-            //Creating objects for the offspring of the chosen parents
-            Gene[] result = new Gene[2];
-            result[0] = new Gene();
-            result[1] = new Gene();
+        private synchronized Snapshot awaitSnapshot(Snapshot current, int generations) throws InterruptedException {
+            while(pending == null || (pending == current && generations >= BACKGROUND_GENERATION_LIMIT)){
+                wait();
+            }
+            return pending;
+        }
 
-            //Choose a random point for the crossover to flip
-            int point = new Random().nextInt(CHROMOSOME_SIZE);
-
-            //Loop through the chromosomes, taking elements from one parent and flipping to the other at n
-            for (int i = 0; i < CHROMOSOME_SIZE; i++){
-                if(i < point){
-                    result[0].setChromosomeElement(i, getChromosomeElement(i));
-                    result[1].setChromosomeElement(i, other.getChromosomeElement(i));
-                } else {
-                    result[1].setChromosomeElement(i, getChromosomeElement(i));
-                    result[0].setChromosomeElement(i, other.getChromosomeElement(i));
+        @Override
+        public void run(){
+            Snapshot current = null;
+            int generations = 0;
+            try {
+                while(!isInterrupted()){
+                    Snapshot snapshot = awaitSnapshot(current, generations);
+                    if(snapshot != current){
+                        current = snapshot;
+                        generations = 0;
+                        seedPopulation(current.warmStart, current.movesExecuted);
+                    }
+                    evaluateGeneration(current.game, current.predictions, current.pills, current.edibleTimes);
+                    generations++;
+                    int elite = mPopulation.offset(eliteIndex);
+                    latestPlan = new Plan(current, Arrays.copyOfRange(mPopulation.chromosomes, elite, elite + CHROMOSOME_SIZE), mPopulation.fitness[eliteIndex]);
+                    produceNextGeneration();
                 }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
             }
+        }
+    }
+
+    /**
+     * @class Population: represents a series of actions for Pac-man to take (phenotype) for every
+     * gene through the use of a single byte array of values between 0 and 3 (genotype).  Gene i
+     * occupies positions [i * CHROMOSOME_SIZE, (i + 1) * CHROMOSOME_SIZE) and its fitness is kept
+     * at position i of a parallel array, so crossover and mutation never allocate new genes.
+     */
+    static class Population{
+
+        final int size;
+        final float[] fitness;
+        final byte[] chromosomes;
 
-            return result;
+        /**
+         * Allocates memory for every chromosome and fitness value of the population up front.
+         * @param size: the number of genes in the population.
+         */
+        Population(int size) {
+            this.size = size;
+            fitness = new float[size];
+            chromosomes = new byte[size * CHROMOSOME_SIZE];
         }
 
         /**
-         * Mutates a gene using inversion, random mutation or other methods.
-         * This function is called after the mutation chance is rolled.
-         * Mutation can occur (depending on the designer's wishes) to a parent
-         * before reproduction takes place, an offspring at the time it is created,
-         * or (more often) on a gene which will not produce any offspring afterwards.
+         * @param gene: index of the gene in the population.
+         * @return the position of the gene's first move in the chromosome array.
          */
-        void mutate(){
+        int offset(int gene){ return gene * CHROMOSOME_SIZE; }
 
-            //Loop through the chromosome and mutate the bits of the gene by choosing any random action
-            //other than the current one.
-            for(int i = 0; i < CHROMOSOME_SIZE; i++){
-                //Roll a die and check whether the bit should be mutated or not
-                if(new Random().nextInt(100) + 1 < MUTATION_RATE){
-                    MOVE newMove =  POSSIBLE_MOVES[new Random().nextInt(POSSIBLE_MOVES.length)];
-                    //Keep assigning a new random move until the move is different to the original one
-                    while(newMove != mChromosome[i]){
-                        newMove = POSSIBLE_MOVES[new Random().nextInt(POSSIBLE_MOVES.length)];
-                    }
-                    setChromosomeElement(i, newMove);
-                }
+        /**
+         * Randomizes the numbers on the gene's chromosome to values between 0 and 3
+         * @param gene: index of the gene being randomized.
+         */
+        void randomizeChromosome(int gene){
+            SplittableRandom random = Agent_Random.current();
+            for(int i = offset(gene); i < offset(gene) + CHROMOSOME_SIZE; i++){
+                chromosomes[i] = (byte) random.nextInt(POSSIBLE_MOVES.length);
             }
+            fitness[gene] = 0.f;
         }
 
         /**
-         * Sets the fitness, after it is evaluated in the GeneticAlgorithm class.
-         * @param value: the fitness value to be set
+         * Shifts a gene's chromosome to the left, dropping the moves which have already been
+         * executed and padding the end of the chromosome with random moves.
+         * @param gene: index of the gene being shifted.
+         * @param shift: number of moves already executed from the chromosome.
          */
-        void setFitness(float value) { mFitness = value; }
+        void shiftChromosome(int gene, int shift){
+            shiftPlan(chromosomes, offset(gene), shift);
+            fitness[gene] = 0.f;
+        }
 
         /**
-         * @return the gene's fitness value
+         * Copies the chromosome of a gene into a slot of the given population.
+         * @param gene: index of the gene being copied.
+         * @param target: population receiving the copy (may be this population).
+         * @param slot: index of the gene being overwritten in the target.
          */
-        float getFitness() { return mFitness; }
+        void copyChromosome(int gene, Population target, int slot){
+            System.arraycopy(chromosomes, offset(gene), target.chromosomes, target.offset(slot), CHROMOSOME_SIZE);
+        }
 
         /**
-         * Returns the element at position <b>index</b> of the mChromosome array
-         * @param index: the position on the array of the element we want to access
-         * @return the value of the element we want to access (0 or 1)
+         * Creates 2 offspring by combining (using n-point crossover) the chromosomes of two parents,
+         * writing them directly into the target population.
+         * @param parent1: index of the first parent in this population.
+         * @param parent2: index of the second parent in this population.
+         * @param target: population the offspring are written into.
+         * @param child1: slot of the first offspring in the target.
+         * @param child2: slot of the second offspring in the target, or -1 to discard it.
          */
-        MOVE getChromosomeElement(int index){ return mChromosome[index]; }
+        void reproduce(int parent1, int parent2, Population target, int child1, int child2){
 
-        /**
-         * Sets a <b>value</b> to the element at position <b>index</b> of the mChromosome array
-         * @param index: the position on the array of the element we want to access
-         * @param value: the value we want to set at position <b>index</b> of the mChromosome array (0 or 1)
-         */
-        public void setChromosomeElement(int index, MOVE value){ mChromosome[index]=value; }
+            //Choose a random point for the crossover to flip
+            int point = Agent_Random.current().nextInt(CHROMOSOME_SIZE);
+
+            //Take elements from one parent and flip to the other at n
+            byte[] offspring = target.chromosomes;
+            System.arraycopy(chromosomes, offset(parent1), offspring, target.offset(child1), point);
+            System.arraycopy(chromosomes, offset(parent2) + point, offspring, target.offset(child1) + point, CHROMOSOME_SIZE - point);
+            if(child2 != -1){
+                System.arraycopy(chromosomes, offset(parent2), offspring, target.offset(child2), point);
+                System.arraycopy(chromosomes, offset(parent1) + point, offspring, target.offset(child2) + point, CHROMOSOME_SIZE - point);
+            }
+        }
 
         /**
-         * Returns the size of the chromosome (as provided in the Gene constructor)
-         * @return the size of the mChromosome array
+         * Mutates a gene in place using random mutation.
+         * This function is called on offspring at the time they are created.
+         * @param gene: index of the gene being mutated.
          */
-        public int getChromosomeSize() { return mChromosome.length; }
+        void mutate(int gene){
 
-    };
-}
\ No newline at end of file
+            //Loop through the chromosome and mutate the bits of the gene by choosing any random action
+            //other than the current one.
+            SplittableRandom random = Agent_Random.current();
+            for(int i = offset(gene); i < offset(gene) + CHROMOSOME_SIZE; i++){
+                //Roll a die and check whether the bit should be mutated or not
+                if(random.nextInt(100) + 1 < MUTATION_RATE){
+                    chromosomes[i] = (byte) ((chromosomes[i] + 1 + random.nextInt(POSSIBLE_MOVES.length - 1)) % POSSIBLE_MOVES.length);
+                }
+            }
+        }
+    }
+}
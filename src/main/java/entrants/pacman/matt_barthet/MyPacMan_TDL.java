@@ -6,14 +6,14 @@ import pacman.game.Constants;
 import pacman.game.Constants.MOVE;
 import pacman.game.Game;
 
-import java.io.File;
-import java.io.FileWriter;
-import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.*;
+import java.util.concurrent.Callable;
 
 import static entrants.pacman.matt_barthet.Agent_Utility.*;
 
-public class MyPacMan_TDL extends PacmanController {
+public class MyPacMan_TDL extends PacmanController implements Agent_Instrumented.WorkCounter {
 
     /**
      * Initialises the variables for the Q-Learning algorithm.
@@ -23,66 +23,79 @@ public class MyPacMan_TDL extends PacmanController {
     private static final float DISCOUNT_FACTOR = 0.9f;
     private static final float EPSILON = 0.9f;
     public static int MAXIMUM_STEPS = 10;
-    private static final ArrayList<int[]> stateSpace = initialiseStates();
-    private static ArrayList<QEntry> qTable;
+    private static final boolean COMPACT_SIMULATION = true;
+    private static final Agent_OpponentModel OPPONENT_MODEL = new Agent_OpponentModel.Greedy();
+    private static final boolean PARALLEL_LEARNING = Agent_Workers.WORKER_COUNT > 1;
+    private static final boolean ELIGIBILITY_TRACES = false;
+    private static final float TRACE_DECAY = 0.8f;
+    private static final ThreadLocal<Traces> traces = ThreadLocal.withInitial(() -> new Traces(MAXIMUM_STEPS));
+    private static final Agent_StateEncoder ENCODER = new Agent_StateEncoder.Basic();
+    private static final int DENSE_TABLE_LIMIT = 1 << 16;
+    private static final boolean PERSISTENT_TABLE = false;
+    private static final Path TABLE_FILE = Paths.get("Q_Table.bin");
+    private static final int CHECKPOINT_INTERVAL = 1000;
+    private static final boolean LINEAR_APPROXIMATION = false;
+    private static final float LINEAR_LEARNING_RATE = 0.01f;
+    private static final Agent_LinearQ.Features FEATURES = new Agent_LinearQ.Features();
+    private static final ThreadLocal<float[][]> featureBuffers = ThreadLocal.withInitial(() -> new float[2][Agent_LinearQ.Features.COUNT]);
+    private static Agent_LinearQ linearQ;
+    private static final boolean EXPERIENCE_REPLAY = false;
+    private static final int REPLAY_CAPACITY = 1 << 14;
+    private static final int REPLAY_BUDGET = 5;
+    private static final int REPLAY_BATCH = 32;
+    private static final boolean COUNT_BASED_LEARNING = false;
+    private static final float MINIMUM_LEARNING_RATE = 0.02f;
+    private static final boolean UCB_EXPLORATION = false;
+    private static final float UCB_CONSTANT = 20f;
+    private static final float EPSILON_HALF_LIFE = 50f;
+    private static boolean saveOnExit = false;
+    private static Agent_QTable qTable;
     private static Game currentGame;
-    private static final MOVE[] moves = new MOVE[]{MOVE.UP, MOVE.LEFT, MOVE.DOWN, MOVE.RIGHT};
-    Random randomGenerator;
+    private static final MOVE[] moves = Agent_StateEncoder.ACTIONS;
     private float cumalativeScore = 0;
+    private final Agent_Telemetry telemetry = Agent_Telemetry.open("Cum_Reward.txt");
+    private final Agent_Telemetry throughput = Agent_Telemetry.open("Learning_Throughput.txt");
+    private int ticksSinceCheckpoint = 0;
+    private long episodesRun = 0;
+    //Transitions index the rows of this agent's table, so each agent starts its threads on empty rings
+    private final ThreadLocal<Replay> replays = ThreadLocal.withInitial(() -> new Replay(REPLAY_CAPACITY));
 
     public MyPacMan_TDL() {
         ghostEdibleTime = new int[Constants.GHOST.values().length];
+        if(LINEAR_APPROXIMATION){
+            linearQ = new Agent_LinearQ(Agent_LinearQ.Features.COUNT);
+            return;
+        }
         qTable = initialiseTable();
+        if(PERSISTENT_TABLE){
+            if(qTable.load(TABLE_FILE))
+                System.out.println("Loaded Q-Table from " + TABLE_FILE + ".");
+            registerSaveOnExit();
+        }
     }
 
     /**
-     * Initialise the set space to cover every possible state in the learning paradigm.
-     * State format: {Wall North/West/South/East}-{Direction}-{Threat North/West/South/East}-{Trapped}
-     * State Value Ranges: {0,1}-{0,1}-{0,1}-{0,1}-{0,1,2,3,4}-{0,1}-{0,1}-{0,1}-{0,1}-{0,1}{0,1}
-     * @return the ArrayList contain the state space.
+     * Saves whichever Q-Table is in use when the JVM exits, so the next game can carry on
+     * learning from it.  Only one hook is registered however many agents are created.
      */
-    private static ArrayList<int[]> initialiseStates(){
-        ArrayList<int[]> stateSpace = new ArrayList<>();
-        for(int i = 0; i < 4; i++){
-            for(int j = 0; j < 2; j++){
-                for(int k = 0; k < 2; k++){
-                    for(int l = 0; l < 2; l++){
-                        for(int m = 0; m < 2; m++){
-                            for(int n = 0; n < 2; n++){
-                                for(int o = 0; o < 2; o++){
-                                    for(int p = 0; p < 2; p++){
-                                        for(int q = 0; q < 2; q++){
-                                            for(int r = 0; r < 4; r++){
-                                                stateSpace.add(new int[]{i, j, k, l, m, n, o, p, q, r});
-                                            }
-                                        }
-                                    }
-                                }
-                            }
-                        }
-                    }
-                }
-            }
-        }
-        return stateSpace;
+    private static synchronized void registerSaveOnExit(){
+        if(saveOnExit) return;
+        saveOnExit = true;
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> qTable.save(TABLE_FILE)));
     }
 
     /**
-     * Initialise the Q-Table, which contains every possible state-action pair combination from the
-     * previously established state space and action space.  The table prunes out any actions which
-     * cause Ms. Pacman to make a move into a barrier.
-     * @return the generated Q-Table as an ArrayList of QEntries.
+     * Initialise the Q-Table for the encoder's states, pruning out any actions which cause
+     * Ms. Pacman to make a move into a barrier.  Small state spaces get a row for every code up
+     * front; larger ones only allocate rows for the states visited, up to DENSE_TABLE_LIMIT.
+     * @return the generated Q-Table.
      */
-    private ArrayList<QEntry> initialiseTable(){
-        ArrayList<QEntry> qTable = new ArrayList<>();
-        int index = 0;
-        for (int[] state : stateSpace) {
-            for (MOVE move: moves) {
-                if(state[moveToInteger(move) + 1] ==1)
-                    continue;
-                qTable.add(new QEntry(state, move, index));
-                index++;
-            }
+    private static Agent_QTable initialiseTable(){
+        if(ENCODER.stateCount() > DENSE_TABLE_LIMIT)
+            return new Agent_QTable(DENSE_TABLE_LIMIT, ENCODER::legalActions);
+        Agent_QTable qTable = new Agent_QTable((int) ENCODER.stateCount());
+        for (int state = 0; state < qTable.size(); state++) {
+            qTable.setLegalActions(state, ENCODER.legalActions(state));
         }
         return qTable;
     }
@@ -95,16 +108,27 @@ public class MyPacMan_TDL extends PacmanController {
      * @return the chosen move based on the results of the algorithm.
      */
     public MOVE getMove(Game game, long timeDue) {
-        randomGenerator = new Random();
         updateObservations(game);
         observeGhosts(game);
         if(game != currentGame){ currentGame = game; }
         if(game.gameOver()) return null;
         MOVE bestMove = reinforcementLearning();
         predictions.update();
+
+        //Periodically save the table in the background, while the learners are idle between ticks
+        if(PERSISTENT_TABLE && !LINEAR_APPROXIMATION && ++ticksSinceCheckpoint >= CHECKPOINT_INTERVAL){
+            qTable.checkpoint(TABLE_FILE);
+            ticksSinceCheckpoint = 0;
+        }
         return bestMove;
     }
 
+    public long workDone(){ return episodesRun; }
+
+    public String workUnit(){ return "episodes"; }
+
+    public String workDetails(){ return OPPONENT_MODEL.describe(); }
+
     /**
      * While within the set time limit, execute episodes of the algorithm using the given
      * starting state to converge on the best possible move.
@@ -112,145 +136,301 @@ public class MyPacMan_TDL extends PacmanController {
      */
     private MOVE reinforcementLearning(){
         long startTime = new Date().getTime();
-        QEntry startState = getState(currentGame, currentGame.getPacmanCurrentNodeIndex());
+        //Read pills from the pill model, as the rollouts do, so the start state has the same code
+        Agent_GameSimulation game = new Agent_GameSimulation(currentGame, pillModel.getSnapshot());
+        int startState = LINEAR_APPROXIMATION ? 0 : encodeState(game, currentGame.getPacmanCurrentNodeIndex());
+
+        //A full table has no room for this state, so keep Ms. Pacman moving as she was
+        if(startState == -1) return MOVE.NEUTRAL;
+
+        long counter = 0;
+        long deadline = startTime + COMPUTATIONAL_BUDGET;
 
-        int counter = 0;
+        //The end of the budget is kept back for replaying transitions from earlier episodes
+        long simulationDeadline = replaying() ? deadline - REPLAY_BUDGET : deadline;
 
-        while(new Date().getTime() < startTime + COMPUTATIONAL_BUDGET){
-            Game simulation = getGameSimulation(currentGame, predictions, ghostEdibleTime);
-            learningEpisode(simulation, startState);
-            counter++;
+        if(PARALLEL_LEARNING && !Agent_Random.isSeeded()){
+            counter = learnInParallel(startState, simulationDeadline, deadline);
+        } else {
+            while(new Date().getTime() < simulationDeadline){
+                cumalativeScore += episode(simulate(currentGame), startState);
+                counter++;
+            }
+            replayUntil(deadline);
+        }
+        episodesRun += counter;
+        int bestMove;
+        if(LINEAR_APPROXIMATION){
+            float[] phi = featureBuffers.get()[0];
+            bestMove = linearQ.bestAction(phi, FEATURES.extract(game, currentGame.getPacmanCurrentNodeIndex(), phi));
+        } else {
+            bestMove = qTable.bestAction(startState);
         }
-        assert startState != null;
-        QEntry bestMove = getBestEntry(getSimilarEntries(startState));
 
+        telemetry.write(cumalativeScore/counter + "\n");
+
+        return moves[bestMove];
+    }
+
+    /**
+     * Hogwild-style learning: every worker thread runs episodes on its own determinised simulations
+     * until the deadline, all of them updating the shared Q-table without locks.  The episodes run
+     * by each worker are reported per second so throughput can be compared across core counts.
+     * @param startState: the current state of Ms. Pacman in the "real" game.
+     * @param simulationDeadline: the time at which the workers stop starting new episodes.
+     * @param deadline: the time at which the workers stop replaying transitions.
+     * @return the total number of episodes run.
+     */
+    private long learnInParallel(int startState, long simulationDeadline, long deadline){
+        int workers = Agent_Workers.WORKER_COUNT;
+        long[] episodes = new long[workers];
+        float[] rewards = new float[workers];
+        List<Callable<Void>> tasks = new ArrayList<>(workers);
+        for(int worker = 0; worker < workers; worker++){
+            final int id = worker;
+            //The compact model only reads from the game, so workers can share it
+            final Game workerCopy = COMPACT_SIMULATION ? currentGame : currentGame.copy();
+            tasks.add(() -> {
+                while(System.currentTimeMillis() < simulationDeadline){
+                    rewards[id] += episode(simulate(workerCopy), startState);
+                    episodes[id]++;
+                }
+                replayUntil(deadline);
+                return null;
+            });
+        }
+        long start = System.nanoTime();
         try {
-            FileWriter fr = new FileWriter( new File("Cum_Reward.txt"), true);
-            fr.write(cumalativeScore/counter + "\n");
-            fr.close();
-        } catch (IOException e) {
-            e.printStackTrace();
+            Agent_Workers.runAll(tasks);
+        } catch (InterruptedException e) {
+            //Every worker has still finished its episodes, which the table has learned from
+            Thread.currentThread().interrupt();
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        long total = 0;
+        StringBuilder report = new StringBuilder().append(workers);
+        for(int worker = 0; worker < workers; worker++){
+            total += episodes[worker];
+            cumalativeScore += rewards[worker];
+            report.append('\t').append(Math.round(episodes[worker] / seconds));
         }
+        throughput.write(report.append('\n').toString());
+        return total;
+    }
+
+    /**
+     * @return true if transitions are being stored and replayed, which only the Q-Table backend does.
+     */
+    private static boolean replaying(){ return EXPERIENCE_REPLAY && !LINEAR_APPROXIMATION; }
 
-        return bestMove.action;
+    /**
+     * Spends what is left of the budget re-learning from minibatches of the thread's stored
+     * transitions, so each expensive simulated step is learned from more than once.
+     * @param deadline: the time at which to stop.
+     */
+    private void replayUntil(long deadline){
+        if(!replaying()) return;
+        Replay replay = replays.get();
+        SplittableRandom random = Agent_Random.current();
+        while(System.currentTimeMillis() < deadline && replay.replay(qTable, REPLAY_BATCH, random)){}
+    }
+
+    /**
+     * Determinises the game for a learning episode, either into the thread's compact forward model
+     * or into a full copy of the game.
+     * @param game: the game being played.
+     * @return a simulation of the game, ready to be advanced.
+     */
+    private Agent_Simulation simulate(Game game){
+        if(COMPACT_SIMULATION)
+            return getCompactSimulation(game, predictions, pillModel, ghostEdibleTime);
+        return new Agent_GameSimulation(getGameSimulation(game, predictions, ghostEdibleTime));
+    }
+
+    /**
+     * Runs a learning episode with whichever backend is in use.
+     * @param simulation: determinised simulation of the game to be used to simulate moves.
+     * @param startingState: the current state of Ms. Pacman in the "real" game, for the Q-Table.
+     * @return the total reward collected during the episode.
+     */
+    private float episode(Agent_Simulation simulation, int startingState){
+        if(LINEAR_APPROXIMATION)
+            return linearEpisode(simulation);
+        return learningEpisode(simulation, startingState);
     }
 
     /**
      * An learning episode refers to a string of moves Ms. Pacman tests from her current
      * in game position until the terminal condition is reached.  This is either hitting
      * the junction-step limit or if she's eaten by a ghost.
-     * @param simulation: copy of the game to be used to simulate moves.
+     * @param simulation: determinised simulation of the game to be used to simulate moves.
      * @param startingState: the current state of Ms. Pacman in the "real" game.
+     * @return the total reward collected during the episode.
      */
-    private void learningEpisode(Game simulation, QEntry startingState){
-        QEntry currentState = startingState;
+    private float learningEpisode(Agent_Simulation simulation, int startingState){
+        int currentState = startingState;
+        float episodeReward = 0;
+        Traces trace = traces.get();
+        trace.clear();
+        EnumMap<Constants.GHOST, MOVE> ghostMoves = getGhostMoveBuffer();
 
         //cumalativeScore = 0;
         for(int stepCount = 0; stepCount < MAXIMUM_STEPS && !simulation.wasPacManEaten(); stepCount++){
 
             //Choose the next move to make from this state and apply it.
-            currentState = chooseAction(currentState);
+            int action = chooseAction(currentState);
+            MOVE move = moves[action];
+
+            //Counts drive both the count-based learning rates and UCB exploration
+            if(COUNT_BASED_LEARNING || UCB_EXPLORATION)
+                qTable.visit(currentState, action);
+
+            //Watkins' Q(lambda) only credits earlier steps for what follows a greedy action
+            if(ELIGIBILITY_TRACES && action != qTable.bestAction(currentState))
+                trace.clear();
             float reward = 0;
 
             while(true){
 
                 //Advance another step in the simulation based on the next micro action and ghost actions
-                simulation.advanceGame(currentState.action, getBasicGhostMoves(simulation));
+                simulation.advanceGame(move, OPPONENT_MODEL.getMoves(simulation, ghostMoves));
                 reward += rewardFunction(simulation);
 
                 //If the current micro action leads Ms.Pacman to a junction or barrier, skip to the next action
                 if(simulation.isJunction(simulation.getPacmanCurrentNodeIndex()))
                     break;
-                if(simulation.getNeighbour(simulation.getPacmanCurrentNodeIndex(), currentState.action) == -1)
+                if(simulation.getNeighbour(simulation.getPacmanCurrentNodeIndex(), move) == -1)
                     break;
                 if(simulation.wasPacManEaten())
                     break;
 
             }
 
-            //Find the first entry in the table with the resulting state and ensure it isn't a null pointer.
-            QEntry nextState = getState(simulation, simulation.getPacmanCurrentNodeIndex()); assert nextState != null;
-
-            //Update the Q-Value with the reward and best value of the next state.
-            currentState.updateValue(reward, getBestEntry(getSimilarEntries(nextState)));
+            //Encode the resulting state straight into its row of the table.
+            int nextState = encodeState(simulation, simulation.getPacmanCurrentNodeIndex());
+            if(nextState == -1)
+                break;
+            if(replaying())
+                replays.get().record(currentState, action, reward, nextState, simulation.wasPacManEaten());
+
+            //Update the Q-Value with the reward and best value of the next state, which being eaten
+            //ends the episode without.
+            float target = simulation.wasPacManEaten() ? reward : reward + DISCOUNT_FACTOR * qTable.bestValue(nextState);
+            if(ELIGIBILITY_TRACES){
+                float error = target - qTable.get(currentState, action);
+                trace.visit(currentState, action);
+                trace.apply(qTable, learningRate(currentState, action) * error, DISCOUNT_FACTOR * TRACE_DECAY);
+            } else {
+                qTable.update(currentState, action, target, learningRate(currentState, action));
+            }
 
             //Set the current state to the newly derived state.
             currentState = nextState;
-            cumalativeScore += reward;
+            episodeReward += reward;
         }
+        return episodeReward;
     }
 
     /**
-     * Function to get the first qEntry corresponding to the current game state.
-     * @param game: current game being played.
-     * @param location: Ms. Pacman's location in the maze
-     * @return the first entry in the QTable containing this state.
+     * The learning episode of the linear backend: rather than looking up a row of the Q-Table,
+     * every state is turned into a feature vector and the weights of the action taken are moved
+     * with a semi-gradient TD update.  The thread's two feature buffers are swapped between steps,
+     * so an episode never allocates.
+     * @param simulation: determinised simulation of the game to be used to simulate moves.
+     * @return the total reward collected during the episode.
      */
-    private QEntry getState(Game game, int location){
+    private float linearEpisode(Agent_Simulation simulation){
+        float[][] buffers = featureBuffers.get();
+        float[] current = buffers[0], next = buffers[1];
+        int legal = FEATURES.extract(simulation, simulation.getPacmanCurrentNodeIndex(), current);
+        float episodeReward = 0;
+        SplittableRandom random = Agent_Random.current();
+        EnumMap<Constants.GHOST, MOVE> ghostMoves = getGhostMoveBuffer();
 
-        int[] currentState = new int[10];
+        for(int stepCount = 0; stepCount < MAXIMUM_STEPS && !simulation.wasPacManEaten(); stepCount++){
 
-        currentState[0] = moveToInteger(game.getPacmanLastMoveMade());
+            //Epsilon-greedy choice over the legal actions, as with the Q-Table.
+            int action = random.nextDouble() < EPSILON ? linearQ.bestAction(current, legal) : Agent_LinearQ.randomAction(legal, random);
+            MOVE move = moves[action];
+            float reward = 0;
 
-        for(int i = 1; i < 5; i++){
-            if(game.getNeighbour(location, moves[i-1]) == -1){
-                currentState[i] = 1;
-            } else {
-                currentState[i] = 0;
+            while(true){
+                simulation.advanceGame(move, OPPONENT_MODEL.getMoves(simulation, ghostMoves));
+                reward += rewardFunction(simulation);
+                if(simulation.isJunction(simulation.getPacmanCurrentNodeIndex()))
+                    break;
+                if(simulation.getNeighbour(simulation.getPacmanCurrentNodeIndex(), move) == -1)
+                    break;
+                if(simulation.wasPacManEaten())
+                    break;
             }
-        }
 
-        //Loop through every ghost, if the ghost is visible identify the direction and adjust the state.
-        for(Constants.GHOST ghost: Constants.GHOST.values()){
-            int ghostLocation = game.getGhostCurrentNodeIndex(ghost);
-            if(ghostLocation != -1) {
-                MOVE direction = game.getNextMoveTowardsTarget(location, ghostLocation, Constants.DM.PATH);
-                if(game.getGhostEdibleTime(ghost) > 0) {
-                    currentState[9] = moveToInteger(direction);
-                } else {
-                    switch (moveToInteger(direction)) {
-                        case 0: currentState[5] = 1; break;
-                        case 1: currentState[6] = 1; break;
-                        case 2: currentState[7] = 1; break;
-                        case 3: currentState[8] = 1; break;
-                    }
-                }
-            }
-        }
+            //Being eaten ends the episode, so there is no next state to bootstrap from.
+            int nextLegal = FEATURES.extract(simulation, simulation.getPacmanCurrentNodeIndex(), next);
+            float target = simulation.wasPacManEaten() ? reward : reward + DISCOUNT_FACTOR * linearQ.bestValue(next, nextLegal);
+            linearQ.update(current, action, target, LINEAR_LEARNING_RATE);
 
-        //Go through the Q-Table and extract the first entry with the same state.
-        for (QEntry qEntry : qTable) {
-            if (Arrays.equals(currentState, qEntry.state)) {
-                return qEntry;
-            }
+            float[] swap = current;
+            current = next;
+            next = swap;
+            legal = nextLegal;
+            episodeReward += reward;
         }
+        return episodeReward;
+    }
 
-        //If no entry has been found print error and return a null pointer.
-        System.err.println("ERROR: No entry in the Q-Table corresponds to current state!");
-        return null;
+    /**
+     * Function to encode the current game state and find its Q-Table row.
+     * @param game: current game being played.
+     * @param location: Ms. Pacman's location in the maze
+     * @return the state's row in the Q-Table, or -1 if the table is full.
+     */
+    private int encodeState(Agent_Simulation game, int location){
+        return qTable.row(ENCODER.encode(game, location));
     }
 
     /**
-     * Choose the next action for Ms. Pacman to test using the epsilon-greedy policy.
-     * @param firstEntry: entry containing the state we are looking at.
-     * @return action to take in the given state for next step.
+     * Choose the next action for Ms. Pacman to test.  By default this is the epsilon-greedy
+     * policy; with count-based learning the chance of exploring decays as the state is visited
+     * more often, or UCB1 can be used to explore the least tried actions instead.
+     * @param state: code of the state we are looking at.
+     * @return index of the action to take in the given state for next step.
      */
-    private QEntry chooseAction(QEntry firstEntry){
-        ArrayList<QEntry> possibleMoves = getSimilarEntries(firstEntry);
-        if(randomGenerator.nextFloat() < EPSILON){
-            return getBestEntry(possibleMoves);
+    private static int chooseAction(int state){
+        if(UCB_EXPLORATION)
+            return qTable.upperConfidenceAction(state, UCB_CONSTANT);
+        SplittableRandom random = Agent_Random.current();
+        float exploration = 1 - EPSILON;
+        if(COUNT_BASED_LEARNING)
+            exploration /= 1 + qTable.stateVisits(state) / EPSILON_HALF_LIFE;
+        if(random.nextDouble() >= exploration){
+            return qTable.bestAction(state);
         } else {
-            return possibleMoves.get(randomGenerator.nextInt(possibleMoves.size()));
+            return qTable.randomAction(state, random);
         }
     }
 
+    /**
+     * With count-based learning the step size of a state-action pair is 1/n after its n-th
+     * visit, so its Q-Value is the running average of its targets, down to a floor which keeps
+     * later targets mattering.  Otherwise it is the fixed LEARNING_RATE.
+     * @param state: code of the state.
+     * @param action: index of the action.
+     * @return the learning rate to update the pair with.
+     */
+    private static float learningRate(int state, int action){
+        if(!COUNT_BASED_LEARNING) return LEARNING_RATE;
+        return Math.max(1f / Math.max(qTable.visits(state, action), 1), MINIMUM_LEARNING_RATE);
+    }
+
     /**
      * Returns the reward to be attributed to a state-action execution according to the
      * resulting event.
      * @param game: game state being observed.
      * @return float score value.
      */
-    private float rewardFunction(Game game){
+    private float rewardFunction(Agent_Simulation game){
         float score = 0;
         if(game.wasPacManEaten()) {
             return -100;
@@ -269,151 +449,128 @@ public class MyPacMan_TDL extends PacmanController {
     }
 
     /**
-     * Get entries in the qTable with the same state as the given entry.
-     * @param entry: entry with the state we'd like to compare.
-     * @return all entries with the same state.
+     * Internal class holding one thread's most recent transitions in a fixed-capacity ring of
+     * parallel arrays, overwriting the oldest transition once it is full.  Rows of the Q-Table
+     * never move, so transitions stay valid from one tick to the next.
      */
-    private ArrayList<QEntry> getSimilarEntries(QEntry entry){
-        ArrayList<QEntry> possibleMoves = new ArrayList<>();
-        for(int i = entry.qIndex;; i++){
-            if(Arrays.equals(entry.state, qTable.get(i).state)) {
-                possibleMoves.add(qTable.get(i));
-            } else {
-                break;
-            }
+    static class Replay {
+
+        private final int[] states, actions, nextStates;
+        private final float[] rewards;
+        private final boolean[] terminal;
+        private int next, count;
+
+        Replay(int capacity){
+            states = new int[capacity];
+            actions = new int[capacity];
+            nextStates = new int[capacity];
+            rewards = new float[capacity];
+            terminal = new boolean[capacity];
         }
-        return possibleMoves;
-    }
 
-    /**
-     * Get the entry with the best Q-Value from the list of entries given.
-     * @param entries: list of entries to be analysed.
-     * @return entry with the best Q-Value.
-     */
-    private QEntry getBestEntry(ArrayList<QEntry> entries){
-        float max = Integer.MIN_VALUE;
-        QEntry maxEntry = null;
-        for (QEntry entry: entries){
-            if(entry.qValue > max) {
-                maxEntry = entry;
-                max = entry.qValue;
+        /**
+         * Stores a transition, in place of the oldest one if the ring is full.
+         * @param state: the state row the action was taken in.
+         * @param action: the action index.
+         * @param reward: the reward collected by the action.
+         * @param nextState: the state row the action led to.
+         * @param ended: true if Ms. Pacman was eaten, so there is no value to bootstrap from.
+         */
+        void record(int state, int action, float reward, int nextState, boolean ended){
+            states[next] = state;
+            actions[next] = action;
+            rewards[next] = reward;
+            nextStates[next] = nextState;
+            terminal[next] = ended;
+            next = (next + 1) % states.length;
+            count = Math.min(count + 1, states.length);
+        }
+
+        /**
+         * Applies the one-step Q-Learning update to a minibatch of stored transitions drawn
+         * uniformly at random.
+         * @param qTable: the table being updated.
+         * @param batch: the number of transitions to replay.
+         * @param random: the generator used for the draws.
+         * @return false if there is nothing to replay yet.
+         */
+        boolean replay(Agent_QTable qTable, int batch, SplittableRandom random){
+            if(count == 0) return false;
+            for(int i = 0; i < batch; i++){
+                int t = random.nextInt(count);
+                float target = terminal[t] ? rewards[t] : rewards[t] + DISCOUNT_FACTOR * qTable.bestValue(nextStates[t]);
+                qTable.update(states[t], actions[t], target, learningRate(states[t], actions[t]));
             }
+            return true;
         }
-        assert maxEntry != null;
-        return maxEntry;
     }
 
     /**
-     * Converts a MOVE variable to integer based on the state representation used.
-     * In this case {N/W/S/E} = {0/1/2/3}
-     * @param move: move that should be converted to an integer.
-     * @return integer value corresponding to that move.
+     * Internal class holding the eligibility traces of one learning episode: a short list of the
+     * state-action pairs visited so far and how much credit each still receives.  It never holds
+     * more pairs than an episode has steps, and pairs whose trace has faded away are dropped.
      */
-    private int moveToInteger(MOVE move){
-        if(move == MOVE.UP)
-            return 0;
-        if(move == MOVE.LEFT)
-            return 1;
-        if(move == MOVE.DOWN)
-            return 2;
-        if(move == MOVE.RIGHT)
-            return 3;
-        return 0;
-    }
+    static class Traces {
 
-    /**
-     * Converter an integer array state representation into a readable text based
-     * representation for debugging purposes.
-     * @param state: integer array containing state being converted.
-     * @return string containing state description.
-     */
-    private String getStateMeaning(int[] state){
-
-        String output = "Direction: ";
-        switch(state[0]){
-            case 0: output += "UP\t"; break;
-            case 1: output += "LEFT\t"; break;
-            case 2: output += "DOWN\t"; break;
-            case 3: output += "RIGHT\t"; break;
-        }
+        private final static float MINIMUM_TRACE = 0.01f;
+        private final int[] states, actions;
+        private final float[] eligibility;
+        private int count;
 
-        output += "PILL: ";
-        switch(state[1]){
-            case 0: output += "UP\n"; break;
-            case 1: output += "LEFT\n"; break;
-            case 2: output += "DOWN\n"; break;
-            case 3: output += "RIGHT\n"; break;
-            case 4: output += "UNKNOWN\n"; break;
+        Traces(int capacity){
+            states = new int[capacity];
+            actions = new int[capacity];
+            eligibility = new float[capacity];
         }
 
-        output += "Wall Above: ";
-        if(state[2] == 1)
-            output += "Yes.\t";
-        else
-            output += "No.\t";
-        output += "Wall Left: ";
-        if(state[3] == 1)
-            output += "Yes.\t";
-        else
-            output += "No.\t";
-        output += "Wall Below: ";
-        if(state[4] == 1)
-            output += "Yes.\t";
-        else
-            output += "No.\t";
-        output += "Wall Right: ";
-        if(state[5] == 1)
-            output += "Yes.\n";
-        else
-            output += "No.\n";
-        output += "Ghost Above: ";
-        if(state[6] == 1)
-            output += "Yes.\t";
-        else
-            output += "No.\t";
-        output += "Ghost Left: ";
-        if(state[7] == 1)
-            output += "Yes.\t";
-        else
-            output += "No.\t";
-        output += "Ghost Below: ";
-        if(state[8] == 1)
-            output += "Yes.\t";
-        else
-            output += "No.\t";
-        output += "Ghost Right: ";
-        if(state[9] == 1)
-            output += "Yes.\n";
-        else
-            output += "No.\n";
-        return output;
-    }
+        void clear(){ count = 0; }
 
-    /**
-     * Internal class to be used to represent entries in the Q-Table. This improves
-     * the organisation of the algorithm.
-     */
-    public static class QEntry {
-
-        int [] state; MOVE action;
-        int qIndex; float qValue;
-
-        public QEntry(int[] state, MOVE action, int index){
-            this.state = state;
-            this.action = action;
-            qValue = 0;
-            qIndex = index;
+        /**
+         * Marks a state-action pair as just visited, using replacing traces.
+         * @param state: the state code.
+         * @param action: the action index.
+         */
+        void visit(int state, int action){
+            for(int i = 0; i < count; i++){
+                if(states[i] == state && actions[i] == action){
+                    eligibility[i] = 1;
+                    return;
+                }
+            }
+            if(count == states.length){
+                //Evict the pair with the least credit left to make room
+                int weakest = 0;
+                for(int i = 1; i < count; i++){
+                    if(eligibility[i] < eligibility[weakest])
+                        weakest = i;
+                }
+                remove(weakest);
+            }
+            states[count] = state;
+            actions[count] = action;
+            eligibility[count++] = 1;
         }
 
         /**
-         * Updates the Q-Value of this state-action entry in the Q-Table using the formula:
-         * Q(S,A) = Q(S, A) + Alpha * [R + Gamma * Q(S', A') - Q(S,A)]
-         * @param reward: reward value observed for executing this entry.
-         * @param futureAction: Q-Value of the next optimised action being taken.
+         * Applies one TD error to every traced pair in proportion to its trace, then decays the traces.
+         * @param qTable: the table being updated.
+         * @param step: the learning rate multiplied by the TD error.
+         * @param decay: gamma * lambda.
          */
-        public void updateValue(float reward, QEntry futureAction){
-            qValue += LEARNING_RATE * (reward + DISCOUNT_FACTOR * futureAction.qValue - qValue);
+        void apply(Agent_QTable qTable, float step, float decay){
+            for(int i = count - 1; i >= 0; i--){
+                qTable.adjust(states[i], actions[i], step * eligibility[i]);
+                eligibility[i] *= decay;
+                if(eligibility[i] < MINIMUM_TRACE)
+                    remove(i);
+            }
         }
 
+        private void remove(int i){
+            count--;
+            states[i] = states[count];
+            actions[i] = actions[count];
+            eligibility[i] = eligibility[count];
+        }
     }
-}
\ No newline at end of file
+}
@@ -3,6 +3,7 @@ package examples.StarterGhost;
 import pacman.controllers.IndividualGhostController;
 import pacman.game.Constants;
 import pacman.game.Game;
+import pathing.PathTables;
 
 import java.util.Random;
 
@@ -48,6 +49,7 @@ public class POGhost extends IndividualGhostController {
     //This helper function checks if Ms Pac-Man is close to an available power pill
     private boolean closeToPower(Game game) {
         int[] powerPills = game.getPowerPillIndices();
+        PathTables paths = PathTables.forGame(game);
 
         for (int i = 0; i < powerPills.length; i++) {
             Boolean powerPillStillAvailable = game.isPowerPillStillAvailable(i);
@@ -56,7 +58,7 @@ public class POGhost extends IndividualGhostController {
             if (powerPillStillAvailable == null || pacmanNodeIndex == -1) {
                 return false;
             }
-            if (powerPillStillAvailable && game.getShortestPathDistance(powerPills[i], pacmanNodeIndex) < PILL_PROXIMITY) {
+            if (powerPillStillAvailable && paths.getShortestPathDistance(powerPills[i], pacmanNodeIndex) < PILL_PROXIMITY) {
                 return true;
             }
         }
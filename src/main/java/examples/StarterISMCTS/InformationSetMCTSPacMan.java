@@ -16,6 +16,7 @@ import java.awt.*;
 import java.util.Arrays;
 import java.util.EnumMap;
 import java.util.Random;
+import java.util.SplittableRandom;
 import java.util.List;
 
 import static pacman.game.Constants.*;
@@ -33,6 +34,10 @@ public class InformationSetMCTSPacMan extends PacmanController implements Drawab
     private Game mostRecentGame;
     private Color[] redAlphas;
     private int[] ghostEdibleTime;
+    private final int[] sampledNodes = new int[GHOST.values().length];
+    private final MOVE[] sampledMoves = new MOVE[GHOST.values().length];
+    private final SplittableRandom sampling = new SplittableRandom(random.nextLong());
+    final EnumMap<GHOST, MOVE> ghostMoves = new EnumMap<>(GHOST.class);
     public InformationSetMCTSPacMan() {
         maxTreeDepth = 50;
         maxRolloutDepth = 300;
@@ -121,12 +126,11 @@ public class InformationSetMCTSPacMan extends PacmanController implements Drawab
     private Game obtainDeterminisedState(Game game) {
         GameInfo info = game.getPopulatedGameInfo();
         info.setPacman(new PacMan(game.getPacmanCurrentNodeIndex(), game.getPacmanLastMoveMade(), 0, false));
-        EnumMap<GHOST, GhostLocation> locations = predictions.sampleLocations();
+        predictions.getSampler().sampleInto(sampledNodes, sampledMoves, sampling);
         info.fixGhosts(ghost -> {
-            GhostLocation location = locations.get(ghost);
-            if (location != null) {
+            if (sampledNodes[ghost.ordinal()] != -1) {
                 int edibleTime = ghostEdibleTime[ghost.ordinal()];
-                return new Ghost(ghost, location.getIndex(), edibleTime, 0, location.getLastMoveMade());
+                return new Ghost(ghost, sampledNodes[ghost.ordinal()], edibleTime, 0, sampledMoves[ghost.ordinal()]);
             } else {
                 return new Ghost(ghost, game.getGhostInitialNodeIndex(), 0, 0, MOVE.NEUTRAL);
             }
@@ -299,22 +303,21 @@ class ISNode {
         return (score / visits) + Math.sqrt(2 * Math.log((parent.visits + 1) / visits));
     }
 
-    // Send all the ghosts towards Ms. Pac-Man
+    // Send all the ghosts towards Ms. Pac-Man, reusing the controller's move buffer
     protected EnumMap<GHOST, MOVE> getBasicGhostMoves(Game game) {
-        EnumMap<GHOST, MOVE> moves = new EnumMap<>(GHOST.class);
+        EnumMap<GHOST, MOVE> moves = informationSetMCTSPacMan.ghostMoves;
         int pacmanLocation = game.getPacmanCurrentNodeIndex();
         for (GHOST ghost : GHOST.values()) {
             int index = game.getGhostCurrentNodeIndex(ghost);
             MOVE previousMove = game.getGhostLastMoveMade(ghost);
-            if (game.isJunction(index)) {
-                try {
-                    MOVE move = (game.isGhostEdible(ghost))
-                            ? game.getApproximateNextMoveAwayFromTarget(index, pacmanLocation, previousMove, DM.PATH)
-                            : game.getNextMoveTowardsTarget(index, pacmanLocation, previousMove, DM.PATH);
-                    moves.put(ghost, move);
-                }catch(NullPointerException npe){
-                    System.err.println("PacmanLocation: " + pacmanLocation + " Maze Index: " + game.getMazeIndex() + " Last Move: " + previousMove);
-                }
+            if (index == -1 || previousMove == null) {
+                // Nothing is known about the ghost, so the engine keeps it moving as it was
+                moves.remove(ghost);
+            } else if (game.isJunction(index)) {
+                MOVE move = (game.isGhostEdible(ghost))
+                        ? game.getApproximateNextMoveAwayFromTarget(index, pacmanLocation, previousMove, DM.PATH)
+                        : game.getNextMoveTowardsTarget(index, pacmanLocation, previousMove, DM.PATH);
+                moves.put(ghost, move);
             } else {
                 moves.put(ghost, previousMove);
             }
@@ -4,6 +4,7 @@ import examples.StarterNNPacMan.LocEvalPacMan;
 import examples.StarterNNPacMan.NeuralNet;
 import examples.StarterNNPacMan.NeuralPacMan;
 import pacman.game.Game;
+import pathing.PathTables;
 
 import java.util.ArrayList;
 
@@ -22,6 +23,7 @@ public class SimpleNNLocPacMan extends LocEvalPacMan {
     @Override
     public double evalLocation(Game game, int index) {
         double[] inputs = new double[4];
+        PathTables paths = PathTables.forGame(game);
 
         // For each ghost, calculate the shortest distance to it
         int shortestDistance = Integer.MAX_VALUE;
@@ -29,7 +31,7 @@ public class SimpleNNLocPacMan extends LocEvalPacMan {
         for (GHOST ghost : GHOST.values()) {
             int ghostLocation = game.getGhostCurrentNodeIndex(ghost);
             if (ghostLocation != -1) {
-                int distance = game.getShortestPathDistance(index, ghostLocation);
+                int distance = paths.getShortestPathDistance(index, ghostLocation);
                 if (game.getGhostEdibleTime(ghost) > 0) {
                     if (distance < shortestEdibleDistance) {
                         shortestEdibleDistance = distance;
@@ -48,7 +50,7 @@ public class SimpleNNLocPacMan extends LocEvalPacMan {
         int[] pillIndices = game.getActivePillsIndices();
         int bestDistance = Integer.MAX_VALUE;
         for (int pillIndex : pillIndices) {
-            int distance = game.getShortestPathDistance(index, pillIndex);
+            int distance = paths.getShortestPathDistance(index, pillIndex);
             if (distance < bestDistance) {
                 bestDistance = distance;
             }
@@ -57,7 +59,7 @@ public class SimpleNNLocPacMan extends LocEvalPacMan {
 
         bestDistance = Integer.MAX_VALUE;
         for (int pillIndex : game.getActivePowerPillsIndices()) {
-            int distance = game.getShortestPathDistance(index, pillIndex);
+            int distance = paths.getShortestPathDistance(index, pillIndex);
             if (distance < bestDistance) {
                 bestDistance = distance;
             }
@@ -4,6 +4,7 @@ import pacman.controllers.PacmanController;
 import pacman.game.Constants;
 import pacman.game.Constants.MOVE;
 import pacman.game.Game;
+import pathing.PathTables;
 
 import java.util.ArrayList;
 import java.util.Random;
@@ -22,6 +23,7 @@ public class MyPacMan extends PacmanController {
 
         // Should always be possible as we are PacMan
         int current = game.getPacmanCurrentNodeIndex();
+        PathTables paths = PathTables.forGame(game);
 
         // Strategy 1: Adjusted for PO
         for (Constants.GHOST ghost : Constants.GHOST.values()) {
@@ -29,9 +31,9 @@ public class MyPacMan extends PacmanController {
             if (game.getGhostEdibleTime(ghost) == 0 && game.getGhostLairTime(ghost) == 0) {
                 int ghostLocation = game.getGhostCurrentNodeIndex(ghost);
                 if (ghostLocation != -1) {
-                    if (game.getShortestPathDistance(current, ghostLocation) < MIN_DISTANCE) {
+                    if (paths.getShortestPathDistance(current, ghostLocation) < MIN_DISTANCE) {
 //                        System.out.println("Evading Ghost");
-                        return game.getNextMoveAwayFromTarget(current, ghostLocation, Constants.DM.PATH);
+                        return paths.getNextMoveAwayFromTarget(current, ghostLocation);
                     }
                 }
             }
@@ -43,7 +45,7 @@ public class MyPacMan extends PacmanController {
         for (Constants.GHOST ghost : Constants.GHOST.values()) {
             // If it is > 0 then it is visible so no more PO checks
             if (game.getGhostEdibleTime(ghost) > 0) {
-                int distance = game.getShortestPathDistance(current, game.getGhostCurrentNodeIndex(ghost));
+                int distance = paths.getShortestPathDistance(current, game.getGhostCurrentNodeIndex(ghost));
 
                 if (distance < minDistance) {
                     minDistance = distance;
@@ -54,7 +56,7 @@ public class MyPacMan extends PacmanController {
 
         if (minGhost != null) {
 //            System.out.println("Hunting Ghost");
-            return game.getNextMoveTowardsTarget(current, game.getGhostCurrentNodeIndex(minGhost), Constants.DM.PATH);
+            return paths.getNextMoveTowardsTarget(current, game.getGhostCurrentNodeIndex(minGhost));
         }
 
         // Strategy 3: Go after the pills and power pills that we can see
@@ -90,7 +92,7 @@ public class MyPacMan extends PacmanController {
             }
             //return the next direction once the closest target has been identified
 //            System.out.println("Hunting pill");
-            return game.getNextMoveTowardsTarget(current, game.getClosestNodeIndexFromNodeIndex(current, targetsArray, Constants.DM.PATH), Constants.DM.PATH);
+            return paths.getNextMoveTowardsTarget(current, paths.getClosestNodeIndexFromNodeIndex(current, targetsArray));
         }
 
 
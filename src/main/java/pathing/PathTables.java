@@ -0,0 +1,314 @@
+package pathing;
+
+import pacman.game.Game;
+import pacman.game.internal.Maze;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static pacman.game.Constants.DM;
+import static pacman.game.Constants.MOVE;
+
+/**
+ * Shortest path distances and first moves between every pair of nodes of a maze, answering path
+ * queries with a single array read.
+ * <p>
+ * The tables for each maze are precomputed by PathTablesBuilder and shipped as the resource
+ * /pathing/[maze name].paths, which is memory-mapped so that every process playing the maze shares
+ * one copy through the page cache.  If the resource is missing or was built for a different maze
+ * the tables are computed from the game's own distances on a background thread and kept on the
+ * heap instead.  Building takes far longer than a tick, so until it finishes every query is passed
+ * straight to the game engine, which gives the same answers more slowly.
+ * <p>
+ * File layout, big-endian: the magic number and the node count as ints, the distances as shorts
+ * for every pair (lo, hi) with lo <= hi at index hi * (hi + 1) / 2 + lo, then the ordinal of the
+ * first move of every pair (from, to) packed in 2 bits at index from * nodes + to.
+ */
+public class PathTables {
+    static final int MAGIC = 0x50544231, HEADER_BYTES = 2 * Integer.BYTES;
+    private static final MOVE[] MOVES = MOVE.values();
+    private static final Map<Maze, PathTables> tables = new IdentityHashMap<>();
+    private static volatile PathTables latest;
+    private static ExecutorService builder;
+
+    private final Maze maze;
+    private final int nodes;
+    private final boolean mapped;
+    // Answers queries until the tables are ready, null for mapped tables
+    private final Game engine;
+    private volatile Data data;
+
+    private PathTables(Maze maze, ByteBuffer buffer) {
+        this.maze = maze;
+        this.nodes = maze.graph.length;
+        this.mapped = true;
+        this.engine = null;
+        this.data = new Data(buffer, nodes);
+    }
+
+    private PathTables(Maze maze, Game engine) {
+        this.maze = maze;
+        this.nodes = maze.graph.length;
+        this.mapped = false;
+        this.engine = engine;
+    }
+
+    /**
+     * The distance and first move tables, read-only views of a buffer in the file layout.
+     */
+    private static final class Data {
+        final ShortBuffer distances;
+        final ByteBuffer moves;
+
+        Data(ByteBuffer buffer, int nodes) {
+            buffer.position(HEADER_BYTES);
+            distances = buffer.slice().asShortBuffer();
+            buffer.position(HEADER_BYTES + pairs(nodes) * Short.BYTES);
+            moves = buffer.slice();
+        }
+    }
+
+    /**
+     * Finds the tables of the maze being played, loading or building them the first time the maze
+     * is seen.
+     *
+     * @param game the game being played
+     * @return the tables of its maze
+     */
+    public static PathTables forGame(Game game) {
+        Maze maze = game.getCurrentMaze();
+        PathTables current = latest;
+        if (current != null && current.maze == maze) return current;
+        synchronized (tables) {
+            current = tables.get(maze);
+            if (current == null) {
+                current = load(game, maze);
+                tables.put(maze, current);
+            }
+        }
+        latest = current;
+        return current;
+    }
+
+    private static PathTables load(Game game, Maze maze) {
+        ByteBuffer mapped = map(resourceName(maze));
+        if (mapped != null && matches(mapped, maze)) {
+            return new PathTables(maze, mapped);
+        }
+        // A copy stays on this maze whatever happens to the game being played
+        Game engine = game.copy();
+        PathTables tables = new PathTables(maze, engine);
+        getBuilder().submit(() -> {
+            tables.data = new Data(build(engine), tables.nodes);
+        });
+        return tables;
+    }
+
+    private static synchronized ExecutorService getBuilder() {
+        if (builder == null) {
+            builder = Executors.newSingleThreadExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "PathTables-Builder");
+                thread.setDaemon(true);
+                thread.setPriority(Thread.MIN_PRIORITY);
+                return thread;
+            });
+        }
+        return builder;
+    }
+
+    static String resourceName(Maze maze) {
+        return maze.name + ".paths";
+    }
+
+    static int pairs(int nodes) {
+        return nodes * (nodes + 1) / 2;
+    }
+
+    static long fileBytes(int nodes) {
+        return HEADER_BYTES + (long) pairs(nodes) * Short.BYTES + ((long) nodes * nodes + 3) / 4;
+    }
+
+    private static boolean matches(ByteBuffer buffer, Maze maze) {
+        return buffer.capacity() == fileBytes(maze.graph.length)
+                && buffer.getInt(0) == MAGIC && buffer.getInt(Integer.BYTES) == maze.graph.length;
+    }
+
+    /**
+     * Maps the named resource into memory.  Resources inside a jar can't be mapped directly, so
+     * they are first extracted to the temporary directory, where later processes find and map the
+     * same file.
+     */
+    private static ByteBuffer map(String name) {
+        URL url = PathTables.class.getResource(name);
+        if (url == null) return null;
+        try {
+            Path file;
+            if ("file".equals(url.getProtocol())) {
+                file = Paths.get(url.toURI());
+            } else {
+                file = Paths.get(System.getProperty("java.io.tmpdir"), "pathing-" + name);
+                if (!Files.exists(file)) {
+                    Path partial = Files.createTempFile(file.getParent(), "pathing-", ".tmp");
+                    try (InputStream in = url.openStream()) {
+                        Files.copy(in, partial, StandardCopyOption.REPLACE_EXISTING);
+                    }
+                    Files.move(partial, file, StandardCopyOption.REPLACE_EXISTING);
+                }
+            }
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            }
+        } catch (IOException | URISyntaxException e) {
+            System.err.println("Couldn't map path tables " + name + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Computes the tables of the game's maze from the game's own path distances, in the file layout.
+     * First moves break ties the way Game.getNextMoveTowardsTarget does: neighbours are visited in
+     * move order and only a strictly shorter path replaces the best one.
+     *
+     * @param game a game being played on the maze
+     * @return the tables, with the buffer's position at zero
+     */
+    static ByteBuffer build(Game game) {
+        Maze maze = game.getCurrentMaze();
+        int nodes = maze.graph.length;
+        ByteBuffer buffer = ByteBuffer.allocate((int) fileBytes(nodes));
+        buffer.putInt(MAGIC).putInt(nodes);
+        for (int hi = 0; hi < nodes; hi++) {
+            for (int lo = 0; lo <= hi; lo++) {
+                int distance = lo == hi ? 0 : game.getShortestPathDistance(lo, hi);
+                buffer.putShort((short) Math.min(Math.max(distance, Short.MIN_VALUE), Short.MAX_VALUE));
+            }
+        }
+        int movesStart = buffer.position();
+        for (int from = 0; from < nodes; from++) {
+            for (int to = 0; to < nodes; to++) {
+                int best = 0, bestDistance = Integer.MAX_VALUE;
+                for (Map.Entry<MOVE, Integer> entry : maze.graph[from].neighbourhood.entrySet()) {
+                    int distance = game.getShortestPathDistance(entry.getValue(), to);
+                    if (distance < bestDistance) {
+                        bestDistance = distance;
+                        best = entry.getKey().ordinal();
+                    }
+                }
+                long index = (long) from * nodes + to;
+                int at = movesStart + (int) (index >> 2);
+                buffer.put(at, (byte) (buffer.get(at) | best << ((index & 3) << 1)));
+            }
+        }
+        buffer.position(0);
+        return buffer;
+    }
+
+    /**
+     * @param maze a maze
+     * @return true if these tables were built for the maze
+     */
+    public boolean isFor(Maze maze) {
+        return this.maze == maze;
+    }
+
+    /**
+     * @return true if the tables are memory-mapped from a precomputed file rather than built on the heap
+     */
+    public boolean isMapped() {
+        return mapped;
+    }
+
+    /**
+     * @return true once queries are answered from the tables rather than passed to the game engine
+     */
+    public boolean isReady() {
+        return data != null;
+    }
+
+    /**
+     * @return the number of nodes in the maze
+     */
+    public int getNumberOfNodes() {
+        return nodes;
+    }
+
+    /**
+     * @param from a node index
+     * @param to   a node index
+     * @return the shortest path distance between the nodes, as Game.getShortestPathDistance
+     */
+    public int getShortestPathDistance(int from, int to) {
+        if (from == to) return 0;
+        Data data = this.data;
+        if (data == null) return engine.getShortestPathDistance(from, to);
+        int lo = Math.min(from, to), hi = Math.max(from, to);
+        return data.distances.get(hi * (hi + 1) / 2 + lo);
+    }
+
+    /**
+     * @param from the node the move is made from
+     * @param to   the target node
+     * @return ordinal of the first move on the shortest path between the nodes
+     */
+    public int getNextMoveOrdinalTowardsTarget(int from, int to) {
+        Data data = this.data;
+        if (data == null) return engine.getNextMoveTowardsTarget(from, to, DM.PATH).ordinal();
+        long index = (long) from * nodes + to;
+        return (data.moves.get((int) (index >> 2)) >> ((index & 3) << 1)) & 3;
+    }
+
+    /**
+     * @param from the node the move is made from
+     * @param to   the target node
+     * @return the first move on the shortest path between the nodes, as Game.getNextMoveTowardsTarget with DM.PATH
+     */
+    public MOVE getNextMoveTowardsTarget(int from, int to) {
+        return MOVES[getNextMoveOrdinalTowardsTarget(from, to)];
+    }
+
+    /**
+     * @param from the node the move is made from
+     * @param to   the node to get away from
+     * @return the move to the neighbour furthest from the target, as Game.getNextMoveAwayFromTarget with DM.PATH
+     */
+    public MOVE getNextMoveAwayFromTarget(int from, int to) {
+        MOVE move = null;
+        int maxDistance = Integer.MIN_VALUE;
+        for (Map.Entry<MOVE, Integer> entry : maze.graph[from].neighbourhood.entrySet()) {
+            int distance = getShortestPathDistance(entry.getValue(), to);
+            if (distance > maxDistance) {
+                maxDistance = distance;
+                move = entry.getKey();
+            }
+        }
+        return move;
+    }
+
+    /**
+     * @param from    a node index
+     * @param targets the candidate nodes
+     * @return the target closest to the node, the first one on ties, or -1 if there are none,
+     * as Game.getClosestNodeIndexFromNodeIndex with DM.PATH
+     */
+    public int getClosestNodeIndexFromNodeIndex(int from, int[] targets) {
+        int closest = -1, minDistance = Integer.MAX_VALUE;
+        for (int target : targets) {
+            int distance = getShortestPathDistance(from, target);
+            if (distance < minDistance) {
+                minDistance = distance;
+                closest = target;
+            }
+        }
+        return closest;
+    }
+}
@@ -0,0 +1,53 @@
+package pathing;
+
+import pacman.game.Game;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+
+import static pacman.game.Constants.NUM_MAZES;
+
+/**
+ * Precomputes the path tables of every maze and writes them where PathTables looks for them.
+ * Run it again whenever the game's mazes change:
+ * <pre>
+ *     java pathing.PathTablesBuilder [output directory, default src/main/resources/pathing]
+ * </pre>
+ */
+public class PathTablesBuilder {
+
+    public static void main(String[] args) throws IOException {
+        Path directory = Paths.get(args.length > 0 ? args[0] : "src/main/resources/pathing");
+        Files.createDirectories(directory);
+        for (int mazeIndex = 0; mazeIndex < NUM_MAZES; mazeIndex++) {
+            Game game = new Game(0, mazeIndex);
+            long start = System.nanoTime();
+            ByteBuffer tables = PathTables.build(game);
+            Path file = directory.resolve(PathTables.resourceName(game.getCurrentMaze()));
+            write(tables, file);
+            System.out.println("Wrote " + file + " (" + game.getCurrentMaze().graph.length + " nodes, "
+                    + tables.capacity() + " bytes) in " + (System.nanoTime() - start) / 1000000 + " ms.");
+        }
+    }
+
+    /**
+     * Writes the tables through a temporary file, so a process mapping the old file never sees a
+     * half written one.
+     */
+    private static void write(ByteBuffer tables, Path file) throws IOException {
+        Path partial = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(partial, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (tables.hasRemaining()) {
+                channel.write(tables);
+            }
+            channel.force(true);
+        }
+        try {
+            Files.move(partial, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(partial, file, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+}
@@ -9,6 +9,7 @@ public class PillModel {
     private BitSet pills;
     private int pillsEaten;
     private double totalPills;
+    private Snapshot snapshot;
 
     public PillModel(int indices) {
         this.totalPills = indices;
@@ -20,13 +21,17 @@ public class PillModel {
         if (pills.get(index)) {
             pillsEaten++;
             pills.set(index, false);
+            snapshot = null;
 //            pills.flip(index);
         }
     }
 
     // There is a pill here!
     public void observe(int index, boolean pillThere) {
-        pills.set(index, pillThere);
+        if (pills.get(index) != pillThere) {
+            pills.set(index, pillThere);
+            snapshot = null;
+        }
     }
 
     public int getPillsEaten() {
@@ -48,4 +53,51 @@ public class PillModel {
     public BitSet getPills() {
         return pills;
     }
+
+    /**
+     * Returns an immutable copy of the pills, built the first time it is asked for after the model
+     * changes, so every simulation determinised in the same tick shares one prepared snapshot.
+     * Callers must not modify the model through getPills() while holding on to a snapshot.
+     */
+    public Snapshot getSnapshot() {
+        Snapshot current = snapshot;
+        if (current == null) {
+            current = new Snapshot(pills);
+            snapshot = current;
+        }
+        return current;
+    }
+
+    /**
+     * Read-only pill state held as the BitSet's words, which simulations copy in bulk.
+     */
+    public static final class Snapshot {
+        private final BitSet pills;
+        private final long[] words;
+
+        private Snapshot(BitSet pills) {
+            this.pills = (BitSet) pills.clone();
+            this.words = pills.toLongArray();
+        }
+
+        // Whether the pill with the given index is believed to still be in the maze
+        public boolean get(int index) {
+            return pills.get(index);
+        }
+
+        // Copies the pills into the target words, clearing any words beyond the snapshot
+        public void copyInto(long[] target) {
+            int length = Math.min(words.length, target.length);
+            System.arraycopy(words, 0, target, 0, length);
+            for (int i = length; i < target.length; i++) {
+                target[i] = 0L;
+            }
+        }
+
+        // Replaces the contents of the target with the pills
+        public void copyInto(BitSet target) {
+            target.clear();
+            target.or(pills);
+        }
+    }
 }
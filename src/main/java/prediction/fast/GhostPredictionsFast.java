@@ -24,6 +24,11 @@ public class GhostPredictionsFast {
     private static final double THRESHOLD = 1 / 256.0d;
     private EnumMap<GHOST, Boolean> beenSpotted;
     private Random random;
+    // Bumped whenever the distribution changes, so a stale sampler is rebuilt on its next use
+    private int version;
+    // Volatile so a sampler built by one rollout thread is seen fully constructed by the others
+    private volatile GhostSamplerFast sampler;
+    private MOVE[][] arrivalMoves;
 
     public GhostPredictionsFast(Maze maze) {
         this.maze = maze;
@@ -45,6 +50,7 @@ public class GhostPredictionsFast {
         double probability = 1 / ((probabilities.length * 1.0d) / GHOST.values().length);
         Arrays.fill(probabilities, probability);
         Arrays.fill(moves, MOVE.NEUTRAL);
+        version++;
     }
 
     public void observe(GHOST ghost, int index, MOVE lastMoveMade) {
@@ -55,6 +61,7 @@ public class GhostPredictionsFast {
         probabilities[arrayIndex] = 1.0d;
         beenSpotted.put(ghost, true);
         moves[arrayIndex] = lastMoveMade;
+        version++;
     }
 
     public void observeNotPresent(GHOST ghost, int index) {
@@ -66,6 +73,7 @@ public class GhostPredictionsFast {
         for (int i = startIndex; i < startIndex + mazeSize; i++) {
             probabilities[i] /= probabilityAdjustment;
         }
+        version++;
     }
 
     public void update() {
@@ -102,6 +110,7 @@ public class GhostPredictionsFast {
 
         System.arraycopy(backMoves, 0, moves, 0, moves.length);
         Arrays.fill(backMoves, null);
+        version++;
     }
 
     public final double calculate(int index) {
@@ -117,33 +126,49 @@ public class GhostPredictionsFast {
 
     public EnumMap<GHOST, GhostLocation> sampleLocations() {
         EnumMap<GHOST, GhostLocation> results = new EnumMap<GHOST, GhostLocation>(GHOST.class);
+        int[] nodes = new int[numGhosts];
+        MOVE[] lastMoves = new MOVE[numGhosts];
+        getSampler().sampleInto(nodes, lastMoves, new SplittableRandom(random.nextLong()));
 
         for (int ghost = 0; ghost < numGhosts; ghost++) {
-            double x = Math.random();
-            double sum = 0.0d;
-            for (int i = (mazeSize * ghost); i < (mazeSize * (ghost + 1)); i++) {
-                sum += probabilities[i];
-                if (sum >= x) {
-                    if (!moves[i].equals(MOVE.NEUTRAL)) {
-                        results.put(GHOST.values()[ghost], new GhostLocation(i % mazeSize, moves[i], probabilities[i]));
-                    } else {
-                        MOVE[] possibleMoves = maze.graph[i % mazeSize].neighbourhood.keySet().toArray(new MOVE[0]);
-                        results.put(
-                                GHOST.values()[ghost],
-                                new GhostLocation(
-                                        i % mazeSize,
-                                        possibleMoves[random.nextInt(possibleMoves.length)].opposite(),
-                                        probabilities[i]
-                                )
-                        );
-                    }
-                    break;
-                }
+            if (nodes[ghost] != -1) {
+                int i = (mazeSize * ghost) + nodes[ghost];
+                results.put(GHOST.values()[ghost], new GhostLocation(nodes[ghost], lastMoves[ghost], probabilities[i]));
             }
         }
         return results;
     }
 
+    /**
+     * Returns the alias sampler for the current distribution, building it the first time it is
+     * needed after the predictions change.  The sampler is immutable, so rollouts on other threads
+     * can share it while they only read from the predictions.
+     */
+    public GhostSamplerFast getSampler() {
+        GhostSamplerFast current = sampler;
+        if (current == null || current.version != version) {
+            if (arrivalMoves == null) {
+                arrivalMoves = buildArrivalMoves();
+            }
+            current = new GhostSamplerFast(probabilities, moves, arrivalMoves, mazeSize, version);
+            sampler = current;
+        }
+        return current;
+    }
+
+    // For every node, the moves a ghost could have made to arrive there
+    private MOVE[][] buildArrivalMoves() {
+        MOVE[][] arrivals = new MOVE[mazeSize][];
+        for (int i = 0; i < mazeSize; i++) {
+            MOVE[] exits = maze.graph[i].neighbourhood.keySet().toArray(new MOVE[0]);
+            for (int j = 0; j < exits.length; j++) {
+                exits[j] = exits[j].opposite();
+            }
+            arrivals[i] = exits;
+        }
+        return arrivals;
+    }
+
     public GhostPredictionsFast copy() {
         GhostPredictionsFast other = new GhostPredictionsFast(this.maze);
         System.arraycopy(this.probabilities, 0, other.probabilities, 0, probabilities.length);
@@ -0,0 +1,117 @@
+package prediction.fast;
+
+import java.util.SplittableRandom;
+
+import static pacman.game.Constants.GHOST;
+import static pacman.game.Constants.MOVE;
+
+/**
+ * Alias tables over each ghost's location distribution, built once from a GhostPredictionsFast
+ * after it changes so that every determinisation in a tick draws a placement in O(1) per ghost
+ * without allocating.  Each ghost's table has one column per node plus an "unplaced" column
+ * holding whatever its probabilities fall short of 1, so a ghost is left out of a placement as
+ * often as the cumulative search of sampleLocations used to leave it out.
+ */
+public class GhostSamplerFast {
+    private static final int numGhosts = GHOST.values().length;
+    private final int mazeSize;
+    // Columns per ghost: one for every node, then the unplaced outcome at index mazeSize
+    private final int columns;
+    private final double[] acceptance;
+    private final int[] alias;
+    private final MOVE[] moves;
+    private final MOVE[][] arrivalMoves;
+    final int version;
+
+    GhostSamplerFast(double[] probabilities, MOVE[] moves, MOVE[][] arrivalMoves, int mazeSize, int version) {
+        this.mazeSize = mazeSize;
+        this.columns = mazeSize + 1;
+        this.moves = moves.clone();
+        this.arrivalMoves = arrivalMoves;
+        this.version = version;
+        acceptance = new double[columns * numGhosts];
+        alias = new int[columns * numGhosts];
+
+        // Vose's method: cells are split into those below and above the average weight, then each
+        // small cell is topped up from a large one
+        int[] small = new int[columns];
+        int[] large = new int[columns];
+        for (int ghost = 0; ghost < numGhosts; ghost++) {
+            int start = ghost * columns;
+            double total = 0;
+            for (int i = ghost * mazeSize; i < (ghost + 1) * mazeSize; i++) {
+                total += probabilities[i];
+            }
+            // A ghost whose distribution is empty or has been broken, e.g. by observeNotPresent
+            // dividing by zero, always goes unplaced, as no cumulative sum ever reached a draw
+            if (!(total > 0) || Double.isInfinite(total)) {
+                for (int i = 0; i < mazeSize; i++) {
+                    acceptance[start + i] = 0.0d;
+                    alias[start + i] = mazeSize;
+                }
+                acceptance[start + mazeSize] = 1.0d;
+                continue;
+            }
+            // A distribution summing to more than 1 is scaled down rather than cut off at 1
+            double scale = Math.max(total, 1.0d);
+
+            int smallCount = 0, largeCount = 0;
+            for (int i = 0; i < columns; i++) {
+                double weight = i < mazeSize ? probabilities[ghost * mazeSize + i] : scale - total;
+                acceptance[start + i] = weight * columns / scale;
+                if (acceptance[start + i] < 1.0d) {
+                    small[smallCount++] = i;
+                } else {
+                    large[largeCount++] = i;
+                }
+            }
+            while (smallCount > 0 && largeCount > 0) {
+                int less = small[--smallCount];
+                int more = large[--largeCount];
+                alias[start + less] = more;
+                acceptance[start + more] += acceptance[start + less] - 1.0d;
+                if (acceptance[start + more] < 1.0d) {
+                    small[smallCount++] = more;
+                } else {
+                    large[largeCount++] = more;
+                }
+            }
+            // Whatever is left over only differs from 1 by rounding error
+            while (largeCount > 0) {
+                acceptance[start + large[--largeCount]] = 1.0d;
+            }
+            while (smallCount > 0) {
+                acceptance[start + small[--smallCount]] = 1.0d;
+            }
+        }
+    }
+
+    /**
+     * Draws one placement of every ghost.  A ghost which draws the unplaced outcome, always the case
+     * once its whole distribution has been ruled out, is given the index -1 and no move.  Ghosts which were never seen moving are given the opposite of
+     * a random exit from their node as their last move, as sampleLocations does.
+     *
+     * @param nodes     receives the node index of each ghost, by ordinal
+     * @param lastMoves receives the last move made by each ghost, by ordinal
+     * @param random    the generator the placement is drawn from
+     */
+    public void sampleInto(int[] nodes, MOVE[] lastMoves, SplittableRandom random) {
+        for (int ghost = 0; ghost < numGhosts; ghost++) {
+            int start = ghost * columns;
+            int column = random.nextInt(columns);
+            int node = random.nextDouble() < acceptance[start + column] ? column : alias[start + column];
+            if (node == mazeSize) {
+                nodes[ghost] = -1;
+                lastMoves[ghost] = null;
+                continue;
+            }
+            MOVE move = moves[ghost * mazeSize + node];
+            if (move == null || move == MOVE.NEUTRAL) {
+                MOVE[] options = arrivalMoves[node];
+                move = options.length == 0 ? MOVE.NEUTRAL : options[random.nextInt(options.length)];
+            }
+            nodes[ghost] = node;
+            lastMoves[ghost] = move;
+        }
+    }
+}